@@ -6,6 +6,7 @@ plugins {
     `maven-publish`
     alias(libs.plugins.spotbugs)
     alias(libs.plugins.jreleaser)
+    alias(libs.plugins.jmh)
 }
 
 group = "com.github.akunzai"
@@ -140,8 +141,19 @@ spotbugs {
     excludeFilter.set(file("$projectDir/spotbugs-exclude.xml"))
 }
 
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // benchmarks run against MockSendGrid, so no network is needed
+    includeTests.set(true)
+    // report the allocation rate per operation next to the timings
+    profilers.add("gc")
+    // machine-readable results, to compare releases
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
 tasks.withType<JavaCompile>().configureEach {
-    if (name.contains("Test")) {
+    if (name.contains("Test") || name.contains("Jmh")) {
         options.release.set(25)
     } else {
         options.release.set(11)
@@ -0,0 +1,78 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a non-triggering event reaching the appender: the filter check that captures it,
+ * and the capture by the manager alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppenderBenchmark {
+
+    private SendGridAppender appender;
+
+    private SendGridManager manager;
+
+    private MutableLogEvent event;
+
+    @Setup
+    public void setup() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-jmh-appender")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setBufferSize(512)
+                .build();
+        appender.start();
+        manager = appender.getManager();
+        event = new MutableLogEvent();
+        event.initFrom(Log4jLogEvent.newBuilder()
+                .setLoggerName("com.example.OrderService")
+                .setLoggerFqcn(AppenderBenchmark.class.getName())
+                .setLevel(Level.DEBUG)
+                .setThreadName("http-nio-8080-exec-1")
+                .setTimeMillis(System.currentTimeMillis())
+                .setMessage(new ParameterizedMessage("Processing order {} for customer {}", 42, "ACME"))
+                .build());
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public boolean isFiltered() {
+        return appender.isFiltered(event);
+    }
+
+    @Benchmark
+    public void add() {
+        manager.add(event);
+    }
+}
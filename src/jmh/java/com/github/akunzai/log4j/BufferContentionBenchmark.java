@@ -0,0 +1,116 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.core.util.CyclicBuffer;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many logging threads capturing events into one shared buffer,
+ * comparing log4j's synchronized {@link CyclicBuffer} with the lock-free buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferContentionBenchmark {
+
+    @Param({"cyclic", "ring", "compact"})
+    public String buffer;
+
+    private EventBuffer eventBuffer;
+
+    @Setup
+    public void setup() {
+        switch (buffer) {
+            case "ring":
+                eventBuffer = new RingEventBuffer(512);
+                break;
+            case "compact":
+                eventBuffer = new CompactEventBuffer(512);
+                break;
+            default:
+                final CyclicBuffer<LogEvent> cyclicBuffer = new CyclicBuffer<>(LogEvent.class, 512);
+                eventBuffer = new EventBuffer() {
+                    @Override
+                    public void add(final LogEvent event) {
+                        cyclicBuffer.add(event.toImmutable());
+                    }
+
+                    @Override
+                    public LogEvent[] removeAll() {
+                        return cyclicBuffer.removeAll();
+                    }
+
+                    @Override
+                    public int size() {
+                        return 0;
+                    }
+                };
+                break;
+        }
+    }
+
+    /**
+     * The mutable event reused by each logging thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadEvent {
+        MutableLogEvent event;
+
+        @Setup
+        public void setup() {
+            event = new MutableLogEvent();
+            event.initFrom(Log4jLogEvent.newBuilder()
+                    .setLoggerName("com.example.OrderService")
+                    .setLoggerFqcn(BufferContentionBenchmark.class.getName())
+                    .setLevel(Level.DEBUG)
+                    .setThreadName(Thread.currentThread().getName())
+                    .setTimeMillis(System.currentTimeMillis())
+                    .setMessage(new ParameterizedMessage("Processing order {} for customer {}", 42, "ACME"))
+                    .build());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void add1(final ThreadEvent state) {
+        eventBuffer.add(state.event);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void add4(final ThreadEvent state) {
+        eventBuffer.add(state.event);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void add16(final ThreadEvent state) {
+        eventBuffer.add(state.event);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void add64(final ThreadEvent state) {
+        eventBuffer.add(state.event);
+    }
+}
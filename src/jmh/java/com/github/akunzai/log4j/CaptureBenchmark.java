@@ -0,0 +1,60 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of capturing a non-triggering event into the buffer.
+ * <p>
+ * Run with {@code ./gradlew jmh} and compare the {@code gc.alloc.rate.norm} reported by the GC profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+
+    @Param({"false", "true"})
+    public boolean compactCapture;
+
+    private EventBuffer buffer;
+
+    private MutableLogEvent event;
+
+    @Setup
+    public void setup() {
+        buffer = compactCapture ? new CompactEventBuffer(512) : new RingEventBuffer(512);
+        // log4j reuses mutable events when thread locals are enabled, which is the default outside web apps
+        event = new MutableLogEvent();
+        event.initFrom(Log4jLogEvent.newBuilder()
+                .setLoggerName("com.example.OrderService")
+                .setLoggerFqcn(CaptureBenchmark.class.getName())
+                .setLevel(Level.DEBUG)
+                .setThreadName("http-nio-8080-exec-1")
+                .setTimeMillis(System.currentTimeMillis())
+                .setMessage(new ParameterizedMessage("Processing order {} for customer {}", 42, "ACME"))
+                .build());
+    }
+
+    @Benchmark
+    public void add() {
+        buffer.add(event);
+    }
+}
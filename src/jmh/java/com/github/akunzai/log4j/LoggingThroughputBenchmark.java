@@ -0,0 +1,91 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many threads logging non-triggering events through a logger with the appender attached,
+ * from the logger call to the capture in the buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingThroughputBenchmark {
+
+    @Param({"false", "true"})
+    public boolean compactCapture;
+
+    private LoggerContext context;
+
+    private SendGridAppender appender;
+
+    private Logger logger;
+
+    @Setup
+    public void setup() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        context = Configurator.initialize(ConfigurationBuilderFactory.newConfigurationBuilder()
+                .setStatusLevel(Level.OFF)
+                .build());
+        appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-jmh-throughput-" + compactCapture)
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setBufferSize(512)
+                .setCompactCapture(compactCapture)
+                .build();
+        appender.start();
+        logger = context.getLogger("com.example.OrderService");
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        logger.setLevel(Level.DEBUG);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop(10, TimeUnit.SECONDS);
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void log1() {
+        logger.debug("Processing order {} for customer {}", 42, "ACME");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void log4() {
+        logger.debug("Processing order {} for customer {}", 42, "ACME");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void log16() {
+        logger.debug("Processing order {} for customer {}", 42, "ACME");
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.helpers.mail.Mail;
+import jakarta.mail.Message;
+import jakarta.mail.internet.AddressException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing the addresses of a message, which is paid once per manager since the message template is cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBuilderBenchmark {
+
+    @Benchmark
+    public Mail build() throws AddressException {
+        return new SendGridMessageBuilder()
+                .setFrom("Alerts <alerts@example.com>")
+                .setReplyTo("noreply@example.com")
+                .setRecipients(Message.RecipientType.TO, "oncall@example.com,Platform Team <platform@example.com>")
+                .setRecipients(Message.RecipientType.CC, "audit@example.com")
+                .setSubject("Error Notification")
+                .build();
+    }
+}
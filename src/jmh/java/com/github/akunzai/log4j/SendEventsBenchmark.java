@@ -0,0 +1,109 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.HtmlLayout;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and sending an email in synchronous mode, for a number of buffered events and a layout.
+ * <p>
+ * The buffer is refilled by each invocation from events built once, as a setup per invocation would cost
+ * more than the invocation itself. Buffering them only copies references, far less than formatting them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendEventsBenchmark {
+
+    @Param({"0", "64", "512"})
+    public int bufferedEvents;
+
+    @Param({"html", "pattern"})
+    public String layoutType;
+
+    private SendGridAppender appender;
+
+    private SendGridManager manager;
+
+    private MockSendGrid sendGrid;
+
+    private Layout<?> layout;
+
+    private LogEvent[] priorEvents;
+
+    private LogEvent appendEvent;
+
+    @Setup
+    public void setup() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        layout = "html".equals(layoutType)
+                ? HtmlLayout.createDefaultLayout()
+                : PatternLayout.newBuilder().withPattern(PatternLayout.SIMPLE_CONVERSION_PATTERN).build();
+        appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-jmh-send-" + layoutType + "-" + bufferedEvents)
+                .setLayout(layout)
+                .setBufferSize(512)
+                .build();
+        appender.start();
+        manager = appender.getManager();
+        sendGrid = (MockSendGrid) manager.sendGrid;
+        priorEvents = new LogEvent[bufferedEvents];
+        for (int i = 0; i < bufferedEvents; i++) {
+            priorEvents[i] = Log4jLogEvent.newBuilder()
+                    .setLoggerName("com.example.OrderService")
+                    .setLevel(Level.DEBUG)
+                    .setThreadName("http-nio-8080-exec-1")
+                    .setTimeMillis(System.currentTimeMillis())
+                    .setMessage(new ParameterizedMessage("Processing order {} for customer {}", i, "ACME"))
+                    .build();
+        }
+        appendEvent = Log4jLogEvent.newBuilder()
+                .setLoggerName("com.example.OrderService")
+                .setLevel(Level.ERROR)
+                .setThreadName("http-nio-8080-exec-1")
+                .setTimeMillis(System.currentTimeMillis())
+                .setMessage(new SimpleMessage("Failed to process the order"))
+                .setThrown(new IllegalStateException("Payment gateway unavailable"))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void sendEvents() {
+        for (final LogEvent priorEvent : priorEvents) {
+            manager.add(priorEvent);
+        }
+        manager.sendEvents(layout, appendEvent);
+        // the mocked client keeps every request
+        sendGrid.getRequests().clear();
+    }
+}
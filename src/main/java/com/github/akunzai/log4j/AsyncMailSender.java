@@ -0,0 +1,279 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LoggingException;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Hands pending mails over to a dedicated daemon thread, so the logging thread never waits on SendGrid.
+ * <p>
+ * When a coalescing window is configured, the mails triggered within the window after the first one
+ * are delivered together, so that an error storm costs one message per window instead of one per error.
+ * Otherwise, the mails already queued behind the first one are delivered together as a batch,
+ * up to the maximum batch size, so that a backlog costs one request per batch instead of one per error.
+ * <p>
+ * Producers queue mails under the read lock and {@link #stop} flips the running state under the write lock,
+ * so a mail is either refused as dropped or queued before the sender thread sees the state change,
+ * and is then delivered by its final drain. Producers blocked on a full queue wait without the lock,
+ * and check the running state again before queuing, so that they never hold {@link #stop} back.
+ */
+final class AsyncMailSender implements Runnable {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+
+    private final String name;
+    private final BlockingQueue<PendingMail> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeoutMillis;
+    private final long coalesceNanos;
+    private final int maxEventsPerMail;
+    private final int maxBatchSize;
+    private final Consumer<List<PendingMail>> delivery;
+    private final Thread thread;
+    private final LongAdder dropped = new LongAdder();
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // signalled when mails are taken out of a full queue, or the sender stops
+    private final Object space = new Object();
+    private final AtomicInteger blocked = new AtomicInteger();
+    private volatile boolean running = true;
+
+    AsyncMailSender(final String name,
+                    final int queueCapacity,
+                    final OverflowPolicy overflowPolicy,
+                    final long overflowTimeoutMillis,
+                    final long coalesceMillis,
+                    final int maxEventsPerMail,
+                    final int maxBatchSize,
+                    final Consumer<List<PendingMail>> delivery) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.DROP_NEWEST : overflowPolicy;
+        this.overflowTimeoutMillis = overflowTimeoutMillis;
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, coalesceMillis));
+        this.maxEventsPerMail = maxEventsPerMail > 0 ? maxEventsPerMail : Integer.MAX_VALUE;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.delivery = delivery;
+        this.thread = Log4jThreadFactory.createDaemonThreadFactory("SendGrid").newThread(this);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return the number of mails waiting to be delivered.
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of mails dropped because the queue was full, or the sender stopped or was interrupted.
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Queue a mail for delivery, applying the overflow policy when the queue is full.
+     *
+     * @param mail The mail to deliver.
+     * @return true if the mail was queued.
+     */
+    boolean enqueue(final PendingMail mail) {
+        // a delivery never waits for its own thread to take mails out of the queue
+        final boolean self = Thread.currentThread() == thread;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(overflowTimeoutMillis);
+        while (true) {
+            stateLock.readLock().lock();
+            try {
+                // a delivery may still queue mails while stopping, the sender thread drains them before it exits
+                if (!running && !self) {
+                    dropped.increment();
+                    LOGGER.warn("SendGrid sender {} is stopped, dropping e-mail notification", name);
+                    return false;
+                }
+                if (queue.offer(mail)) {
+                    return true;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                        LOGGER.warn("SendGrid queue of {} is full, dropped the oldest e-mail notification", name);
+                    }
+                    continue;
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (overflowPolicy != OverflowPolicy.BLOCK || self || remaining <= 0 || !awaitSpace(remaining)) {
+                break;
+            }
+        }
+        dropped.increment();
+        LOGGER.warn("SendGrid queue of {} is full, dropped the newest e-mail notification", name);
+        return false;
+    }
+
+    /**
+     * Wait until mails are taken out of the queue or the sender stops, without holding the state lock.
+     *
+     * @return false if interrupted.
+     */
+    private boolean awaitSpace(final long timeoutNanos) {
+        blocked.incrementAndGet();
+        try {
+            synchronized (space) {
+                if (running && queue.remainingCapacity() == 0) {
+                    TimeUnit.NANOSECONDS.timedWait(space, timeoutNanos);
+                }
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blocked.decrementAndGet();
+        }
+    }
+
+    private void signalSpace() {
+        if (blocked.get() > 0) {
+            synchronized (space) {
+                space.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running || !queue.isEmpty()) {
+            final PendingMail mail;
+            try {
+                mail = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                abandon();
+                return;
+            }
+            if (mail != null) {
+                signalSpace();
+                deliver(coalesce(mail));
+            }
+        }
+    }
+
+    /**
+     * Stop accepting mails and drop the queued ones, as the sender thread exits without delivering them.
+     */
+    private void abandon() {
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        final List<PendingMail> left = new ArrayList<>();
+        queue.drainTo(left);
+        dropped.add(left.size());
+        signalSpace();
+        LOGGER.warn("SendGrid sender {} was interrupted, dropped {} e-mail notifications", name, left.size());
+    }
+
+    private List<PendingMail> coalesce(final PendingMail first) {
+        final List<PendingMail> mails = new ArrayList<>();
+        mails.add(first);
+        if (coalesceNanos == 0) {
+            // only what has built up meanwhile, a batch never waits for more mails
+            if (queue.drainTo(mails, maxBatchSize - 1) > 0) {
+                signalSpace();
+            }
+            return mails;
+        }
+        final long deadline = System.nanoTime() + coalesceNanos;
+        while (mails.size() < maxEventsPerMail) {
+            final long remaining = deadline - System.nanoTime();
+            final PendingMail next;
+            if (running && remaining > 0) {
+                try {
+                    next = queue.poll(Math.min(remaining, POLL_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (next != null) {
+                    signalSpace();
+                    mails.add(next);
+                }
+            } else {
+                // the window is over or the sender is stopping, take only what is already queued
+                next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                signalSpace();
+                mails.add(next);
+            }
+        }
+        return mails;
+    }
+
+    private void deliver(final List<PendingMail> mails) {
+        try {
+            delivery.accept(mails);
+        } catch (final LoggingException ignored) {
+            // already reported by the manager
+        } catch (final RuntimeException e) {
+            LOGGER.error("SendGrid sender {} failed to deliver e-mail notification", name, e);
+        }
+    }
+
+    /**
+     * Stop accepting mails and wait for the queued ones to be delivered.
+     * <p>
+     * Without a timeout, the sender thread keeps draining the queue in the background, without being waited for.
+     *
+     * @param timeout  the maximum time to wait, or zero not to wait.
+     * @param timeUnit the unit of the timeout.
+     * @return true if the queue was fully drained.
+     */
+    boolean stop(final long timeout, final TimeUnit timeUnit) {
+        // a mail being queued concurrently is queued before the sender thread can see that it stopped
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        signalSpace();
+        final long timeoutMillis = timeout > 0 ? timeUnit.toMillis(timeout) : 0;
+        if (timeoutMillis > 0) {
+            try {
+                thread.join(timeoutMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (thread.isAlive()) {
+            if (timeoutMillis > 0) {
+                LOGGER.warn("SendGrid sender {} did not drain within {} ms, {} e-mail notifications left undelivered",
+                        name, timeoutMillis, queue.size());
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.akunzai.log4j;
+
+/**
+ * How the buffer of events preceding a triggering event is partitioned.
+ */
+public enum BufferPartition {
+    /**
+     * A single buffer shared by all threads.
+     */
+    NONE,
+    /**
+     * One buffer per thread name, an email only contains the events of the thread that triggered it.
+     */
+    THREAD,
+    /**
+     * One buffer per value of a {@code ThreadContext} key such as a request ID,
+     * an email only contains the events with the same value as the triggering event.
+     */
+    CONTEXT
+}
@@ -0,0 +1,162 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops calling the SendGrid API while it keeps failing or responding slowly.
+ * <p>
+ * The outcomes of the last calls are kept in a sliding window. Once at least half of the window is filled
+ * and the failure rate or the slow-call rate reaches its threshold, the circuit opens and calls are refused
+ * for the open duration. A single trial call is then let through: the circuit closes if it succeeds
+ * in time and opens again otherwise. A threshold of zero disables its criterion.
+ */
+final class CircuitBreaker {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int slowCallRateThreshold;
+    private final long openNanos;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private final int minimumCalls;
+    private int calls;
+    private int next;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openUntilNanos;
+    private boolean trialInFlight;
+    private long trialStartNanos;
+
+    CircuitBreaker(final String name,
+                   final int failureRateThreshold,
+                   final long slowCallMillis,
+                   final int slowCallRateThreshold,
+                   final int windowSize,
+                   final long openMillis) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowCallMillis) : Long.MAX_VALUE;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openMillis));
+        this.failed = new boolean[Math.max(1, windowSize)];
+        this.slow = new boolean[failed.length];
+        this.minimumCalls = (failed.length + 1) / 2;
+    }
+
+    /**
+     * Decide whether a call may be made.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return false while the circuit is open, or while the trial call of a half-open circuit is in flight.
+     */
+    synchronized boolean tryAcquire(final long nowNanos) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nowNanos - openUntilNanos < 0) {
+                    return false;
+                }
+                transition(State.HALF_OPEN, "letting a trial call through");
+                trialInFlight = true;
+                trialStartNanos = nowNanos;
+                return true;
+            default:
+                // a trial call that was dropped before reaching SendGrid must not keep the circuit half-open
+                if (trialInFlight && nowNanos - trialStartNanos < openNanos) {
+                    return false;
+                }
+                trialInFlight = true;
+                trialStartNanos = nowNanos;
+                return true;
+        }
+    }
+
+    /**
+     * Record a successful call.
+     *
+     * @param durationNanos The duration of the call.
+     * @param nowNanos      The current {@link System#nanoTime()}.
+     * @return true if the call closed a half-open circuit.
+     */
+    synchronized boolean onSuccess(final long durationNanos, final long nowNanos) {
+        return record(false, durationNanos >= slowCallNanos, nowNanos);
+    }
+
+    /**
+     * Record a failed call.
+     *
+     * @param durationNanos The duration of the call.
+     * @param nowNanos      The current {@link System#nanoTime()}.
+     */
+    synchronized void onFailure(final long durationNanos, final long nowNanos) {
+        record(true, durationNanos >= slowCallNanos, nowNanos);
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private boolean record(final boolean failure, final boolean slowCall, final long nowNanos) {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (failure || slowCall) {
+                open(nowNanos, "the trial call " + (failure ? "failed" : "was slow"));
+                return false;
+            }
+            reset();
+            transition(State.CLOSED, "the trial call succeeded");
+            return true;
+        }
+        if (state == State.OPEN) {
+            // a call that started before the circuit opened
+            return false;
+        }
+        if (calls == failed.length) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failed[next] = failure;
+        slow[next] = slowCall;
+        failures += failure ? 1 : 0;
+        slowCalls += slowCall ? 1 : 0;
+        next = (next + 1) % failed.length;
+        if (calls >= minimumCalls) {
+            if (failureRateThreshold > 0 && failures * 100 >= failureRateThreshold * calls) {
+                open(nowNanos, failures + " of the last " + calls + " calls failed");
+            } else if (slowCallRateThreshold > 0 && slowCalls * 100 >= slowCallRateThreshold * calls) {
+                open(nowNanos, slowCalls + " of the last " + calls + " calls were slow");
+            }
+        }
+        return false;
+    }
+
+    private void open(final long nowNanos, final String reason) {
+        openUntilNanos = nowNanos + openNanos;
+        transition(State.OPEN, reason + ", refusing calls for " + TimeUnit.NANOSECONDS.toMillis(openNanos) + " ms");
+    }
+
+    private void reset() {
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void transition(final State newState, final String reason) {
+        LOGGER.warn("SendGrid {} circuit breaker {} -> {}: {}", name, state, newState, reason);
+        state = newState;
+    }
+}
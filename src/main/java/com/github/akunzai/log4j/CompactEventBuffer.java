@@ -0,0 +1,137 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer capturing events into pre-allocated, reusable slots.
+ * <p>
+ * Only the timestamp, level, marker, logger and thread names, formatted message and throwable are kept,
+ * the message being formatted into a reusable {@link StringBuilder}. Capturing an event therefore does not
+ * allocate, and full events are only materialized by {@link #removeAll()} when an email is sent.
+ * The context map and the location information are not captured.
+ * <p>
+ * Like {@link RingEventBuffer}, producers claim a sequence number without locking, then fill the slot
+ * of that sequence under the slot's own monitor, so concurrent producers only contend when they
+ * wrap around onto the same slot.
+ */
+final class CompactEventBuffer implements EventBuffer {
+    private static final int INITIAL_MESSAGE_CAPACITY = 128;
+    private static final int MAX_REUSABLE_MESSAGE_CAPACITY = 4096;
+
+    private static final LogEvent[] EMPTY = new LogEvent[0];
+
+    private final Slot[] slots;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    CompactEventBuffer(final int size) {
+        this.slots = new Slot[Math.max(0, size)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    @Override
+    public void add(final LogEvent event) {
+        if (slots.length == 0) {
+            return;
+        }
+        final long sequence = cursor.getAndIncrement();
+        final Slot slot = slots[(int) (sequence % slots.length)];
+        synchronized (slot) {
+            // a producer that wrapped around may already have filled the slot with a newer event
+            if (sequence > slot.sequence) {
+                slot.capture(event, sequence);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(slots.length, cursor.get() - removed.get()));
+    }
+
+    @Override
+    public LogEvent[] removeAll() {
+        final long end = cursor.get();
+        long start;
+        do {
+            start = removed.get();
+            if (start >= end) {
+                return EMPTY;
+            }
+        } while (!removed.compareAndSet(start, end));
+        start = Math.max(start, end - slots.length);
+        final LogEvent[] events = new LogEvent[(int) (end - start)];
+        int size = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            final Slot slot = slots[(int) (sequence % slots.length)];
+            synchronized (slot) {
+                if (slot.sequence == sequence) {
+                    events[size++] = slot.materialize();
+                }
+            }
+        }
+        return size == events.length ? events : Arrays.copyOf(events, size);
+    }
+
+    private static final class Slot {
+        private long sequence = -1;
+        private long timeMillis;
+        private Level level;
+        private Marker marker;
+        private String loggerName;
+        private String loggerFqcn;
+        private String threadName;
+        private Throwable thrown;
+        private StringBuilder message = new StringBuilder(INITIAL_MESSAGE_CAPACITY);
+
+        void capture(final LogEvent event, final long sequence) {
+            this.sequence = sequence;
+            timeMillis = event.getTimeMillis();
+            level = event.getLevel();
+            marker = event.getMarker();
+            loggerName = event.getLoggerName();
+            loggerFqcn = event.getLoggerFqcn();
+            threadName = event.getThreadName();
+            thrown = event.getThrown();
+            if (message.capacity() > MAX_REUSABLE_MESSAGE_CAPACITY) {
+                message = new StringBuilder(INITIAL_MESSAGE_CAPACITY);
+            } else {
+                message.setLength(0);
+            }
+            final Message source = event.getMessage();
+            if (source instanceof StringBuilderFormattable) {
+                ((StringBuilderFormattable) source).formatTo(message);
+            } else if (source != null) {
+                message.append(source.getFormattedMessage());
+            }
+        }
+
+        LogEvent materialize() {
+            final LogEvent event = Log4jLogEvent.newBuilder()
+                    .setTimeMillis(timeMillis)
+                    .setLevel(level)
+                    .setMarker(marker)
+                    .setLoggerName(loggerName)
+                    .setLoggerFqcn(loggerFqcn)
+                    .setThreadName(threadName)
+                    .setThrown(thrown)
+                    .setMessage(new SimpleMessage(message.toString()))
+                    .build();
+            // release the references held by the slot until it is reused
+            marker = null;
+            thrown = null;
+            return event;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Buffer of the events logged before a triggering event.
+ */
+interface EventBuffer {
+
+    /**
+     * Capture an event, overwriting the oldest one when the buffer is full.
+     *
+     * @param event The Log event, which may be mutable and reused by the caller.
+     */
+    void add(LogEvent event);
+
+    /**
+     * Remove the captured events.
+     *
+     * @return the captured events, oldest first.
+     */
+    LogEvent[] removeAll();
+
+    /**
+     * Remove the captured events that give context to a triggering event.
+     *
+     * @param appendEvent The event that triggered to send.
+     * @return the captured events, oldest first.
+     */
+    default LogEvent[] removeContext(final LogEvent appendEvent) {
+        return removeAll();
+    }
+
+    /**
+     * @return the number of captured events, approximately while events are being captured.
+     */
+    int size();
+}
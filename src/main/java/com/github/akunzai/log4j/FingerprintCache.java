@@ -0,0 +1,220 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.Message;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of recently mailed error fingerprints, used to suppress repeats of the same error.
+ * <p>
+ * The cache is a fixed array of 4-way sets updated with compare-and-set, so looking up a repeat
+ * neither locks nor allocates; a new fingerprint evicts the least recently seen entry of its set.
+ * <p>
+ * The repeats suppressed for an evicted entry, or for an expired entry whose error did not recur,
+ * are kept as unreported until {@link #drainUnreported(long)}, so that they are not silently lost.
+ * <p>
+ * Fingerprinting an exception copies its stack trace, as {@link Throwable#getStackTrace()} does, so at most
+ * {@value #MAX_STACK_FRAMES} frames are compared, and the frames of the last exception are remembered
+ * for when the same instance is logged again, e.g. by a retry loop or when it is rethrown.
+ */
+final class FingerprintCache {
+    private static final int WAYS = 4;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_STACK_FRAMES = 16;
+
+    /**
+     * Returned by {@link #admit(long, long)} when the event is a repeat that must not be mailed.
+     */
+    static final Entry SUPPRESSED = new Entry(0, 0);
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final long ttlMillis;
+    private final int stackFrames;
+    private final AtomicLong unreported = new AtomicLong();
+    // the repeats counted by the entries and not taken out yet, so that draining only scans when there are some
+    private final LongAdder outstanding = new LongAdder();
+    private final AtomicReference<ThrownFrames> lastThrown = new AtomicReference<>();
+
+    /**
+     * @param capacity    Number of fingerprints to remember.
+     * @param ttlMillis   Milliseconds during which repeats are suppressed.
+     * @param stackFrames Number of top stack frames of an exception to compare, up to {@value #MAX_STACK_FRAMES}.
+     */
+    FingerprintCache(final int capacity, final long ttlMillis, final int stackFrames) {
+        int size = WAYS;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.ttlMillis = ttlMillis;
+        this.stackFrames = Math.max(0, Math.min(stackFrames, MAX_STACK_FRAMES));
+    }
+
+    /**
+     * Compute the fingerprint of an event from its logger name, level, message template
+     * and the throwable class with its top stack frames.
+     *
+     * @param event The Log event.
+     * @return the fingerprint.
+     */
+    long fingerprint(final LogEvent event) {
+        long hash = hash(FNV_OFFSET_BASIS, event.getLoggerName());
+        hash = (hash ^ event.getLevel().intLevel()) * FNV_PRIME;
+        final Message message = event.getMessage();
+        if (message != null) {
+            final String format = message.getFormat();
+            hash = hash(hash, format != null ? format : message.getFormattedMessage());
+        }
+        final Throwable thrown = event.getThrown();
+        if (thrown != null) {
+            hash = hash(hash, thrown.getClass().getName());
+            if (stackFrames > 0) {
+                hash = (hash ^ frames(thrown)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private long frames(final Throwable thrown) {
+        final ThrownFrames last = lastThrown.get();
+        if (last != null && last.get() == thrown) {
+            return last.hash;
+        }
+        final StackTraceElement[] stackTrace = thrown.getStackTrace();
+        final int frames = Math.min(stackFrames, stackTrace.length);
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < frames; i++) {
+            hash = hash(hash, stackTrace[i].getClassName());
+            hash = hash(hash, stackTrace[i].getMethodName());
+            hash = (hash ^ stackTrace[i].getLineNumber()) * FNV_PRIME;
+        }
+        lastThrown.set(new ThrownFrames(thrown, hash));
+        return hash;
+    }
+
+    private static long hash(long hash, final String value) {
+        if (value == null) {
+            return hash * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Decide whether an event with the given fingerprint should be mailed.
+     *
+     * @param fingerprint The event fingerprint.
+     * @param nowMillis   The event time.
+     * @return {@link #SUPPRESSED} for a repeat within the TTL, the expired entry of the same fingerprint
+     * carrying its suppressed count, or null for a fingerprint not seen recently.
+     */
+    Entry admit(final long fingerprint, final long nowMillis) {
+        final int base = (int) (fingerprint ^ (fingerprint >>> 32)) & mask & -WAYS;
+        while (true) {
+            int victim = base;
+            long victimSeen = Long.MAX_VALUE;
+            Entry expected = null;
+            for (int i = base; i < base + WAYS; i++) {
+                final Entry entry = slots.get(i);
+                if (entry == null) {
+                    if (victimSeen != Long.MIN_VALUE) {
+                        victim = i;
+                        victimSeen = Long.MIN_VALUE;
+                        expected = null;
+                    }
+                    continue;
+                }
+                if (entry.fingerprint == fingerprint) {
+                    if (nowMillis - entry.mailedMillis < ttlMillis) {
+                        outstanding.increment();
+                        entry.suppressed.incrementAndGet();
+                        entry.lastSeenMillis = nowMillis;
+                        return SUPPRESSED;
+                    }
+                    victim = i;
+                    expected = entry;
+                    break;
+                }
+                if (entry.lastSeenMillis < victimSeen) {
+                    victim = i;
+                    victimSeen = entry.lastSeenMillis;
+                    expected = entry;
+                }
+            }
+            if (slots.compareAndSet(victim, expected, new Entry(fingerprint, nowMillis))) {
+                if (expected != null && expected.fingerprint == fingerprint) {
+                    // reported by the caller
+                    outstanding.add(-expected.suppressed.get());
+                    return expected;
+                }
+                if (expected != null) {
+                    final long suppressed = expected.suppressed.getAndSet(0);
+                    outstanding.add(-suppressed);
+                    unreported.addAndGet(suppressed);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Take the number of suppressed repeats that no email reported yet: those of evicted entries,
+     * and those of entries whose TTL expired without their error recurring.
+     *
+     * @param nowMillis The current time.
+     * @return the number of repeats to report.
+     */
+    long drainUnreported(final long nowMillis) {
+        long count = unreported.getAndSet(0);
+        if (outstanding.sum() <= 0) {
+            return count;
+        }
+        for (int i = 0; i < slots.length(); i++) {
+            final Entry entry = slots.get(i);
+            if (entry != null && nowMillis - entry.mailedMillis >= ttlMillis && entry.suppressed.get() > 0) {
+                final long suppressed = entry.suppressed.getAndSet(0);
+                outstanding.add(-suppressed);
+                count += suppressed;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The hash of the top stack frames of an exception, which is not kept from being collected.
+     */
+    private static final class ThrownFrames extends WeakReference<Throwable> {
+        final long hash;
+
+        ThrownFrames(final Throwable thrown, final long hash) {
+            super(thrown);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A mailed fingerprint and the number of repeats suppressed since.
+     */
+    static final class Entry {
+        final long fingerprint;
+        final long mailedMillis;
+        final AtomicLong suppressed = new AtomicLong();
+        volatile long lastSeenMillis;
+
+        Entry(final long fingerprint, final long mailedMillis) {
+            this.fingerprint = fingerprint;
+            this.mailedMillis = mailedMillis;
+            this.lastSeenMillis = mailedMillis;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.akunzai.log4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compresses request bodies into the gzip format, reusing the {@link Deflater} and its native memory
+ * from one request to the next.
+ */
+final class GzipEncoder {
+    static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_LENGTH = 8;
+
+    private final AtomicReference<Deflater> idleDeflater = new AtomicReference<>();
+
+    /**
+     * Compress the data.
+     *
+     * @param data   The data to compress.
+     * @param length The number of bytes of data.
+     * @return the gzip member.
+     */
+    byte[] encode(final byte[] data, final int length) {
+        Deflater deflater = idleDeflater.getAndSet(null);
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] out = new byte[HEADER.length + (length >> 2) + 64];
+            System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+            int count = HEADER.length;
+            while (!deflater.finished()) {
+                if (count == out.length) {
+                    out = Arrays.copyOf(out, out.length << 1);
+                }
+                count += deflater.deflate(out, count, out.length - count);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            out = Arrays.copyOf(out, count + TRAILER_LENGTH);
+            writeIntLE(out, count, (int) crc.getValue());
+            writeIntLE(out, count + 4, length);
+            return out;
+        } finally {
+            deflater.reset();
+            if (!idleDeflater.compareAndSet(null, deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Decompress a gzip member.
+     *
+     * @param data The compressed data.
+     * @return the decompressed data.
+     * @throws IOException if the data is not in the gzip format.
+     */
+    static byte[] decode(final byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void writeIntLE(final byte[] out, final int offset, final int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Release the native memory of the idle deflater.
+     */
+    void close() {
+        final Deflater deflater = idleDeflater.getAndSet(null);
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+}
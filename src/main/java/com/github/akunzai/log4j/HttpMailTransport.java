@@ -0,0 +1,136 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.SendGrid;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests with the JDK HTTP client, which keeps connections alive between alerts,
+ * negotiates HTTP/2 and can send gzip-compressed bodies.
+ * <p>
+ * The host, API version and request headers are taken from the SendGrid client. A host may include
+ * the scheme, e.g. {@code http://localhost:8080}, otherwise HTTPS is used.
+ */
+final class HttpMailTransport implements MailTransport {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private final String baseUri;
+    private final Map<String, String> headers;
+    private final Duration readTimeout;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    HttpMailTransport(final SendGrid sendGrid,
+                      final long connectTimeoutMillis,
+                      final long readTimeoutMillis,
+                      final boolean http2,
+                      final boolean virtualThreads) {
+        final String host = sendGrid.getHost();
+        this.baseUri = (host.contains("://") ? host : "https://" + host) + "/" + sendGrid.getVersion() + "/";
+        this.headers = new LinkedHashMap<>(sendGrid.getRequestHeaders());
+        this.readTimeout = readTimeoutMillis > 0 ? Duration.ofMillis(readTimeoutMillis) : null;
+        this.executor = virtualThreads ? newVirtualThreadExecutor() : null;
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        if (connectTimeoutMillis > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        }
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.client = builder.build();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor() is only available from Java 21
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not available in this JVM, using the default HTTP client executor");
+            return null;
+        }
+    }
+
+    @Override
+    public void post(final String endpoint, final byte[] body, final boolean gzip) throws IOException {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUri + endpoint))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        builder.setHeader("Content-Type", "application/json");
+        if (gzip) {
+            builder.setHeader("Content-Encoding", "gzip");
+        }
+        if (readTimeout != null) {
+            builder.timeout(readTimeout);
+        }
+        final HttpResponse<String> response;
+        try {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending e-mail notification");
+        }
+        if (response.statusCode() >= 300) {
+            final long retryAfterMillis = response.headers().firstValue("Retry-After")
+                    .map(HttpMailTransport::parseRetryAfter)
+                    .orElse(-1L);
+            throw new MailDeliveryException("Request returned status Code " + response.statusCode() + "Body:" + response.body(),
+                    response.statusCode(), retryAfterMillis, null);
+        }
+    }
+
+    /**
+     * Parse a {@code Retry-After} header given either in seconds or as an HTTP date.
+     */
+    static long parseRetryAfter(final String value) {
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (final NumberFormatException ignored) {
+            // not a number of seconds
+        }
+        try {
+            final long millis = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, millis - System.currentTimeMillis());
+        } catch (final DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean supportsGzip() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // HttpClient is AutoCloseable from Java 21, before that its threads end once it is unreachable
+        if (client instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) client).close();
+            } catch (final Exception e) {
+                LOGGER.warn("Unable to close the HTTP client", e);
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
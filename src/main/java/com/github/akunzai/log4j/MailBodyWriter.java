@@ -0,0 +1,705 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.StringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the JSON body of a {@code mail/send} request, streaming the layout output into the escaped
+ * {@code content} values instead of building the content as a String first.
+ * <p>
+ * A body may have several content parts, e.g. {@code text/plain} and {@code text/html}, each formatted
+ * by its own layout. The events are iterated once: every event is formatted by every layout in turn,
+ * the first part being streamed into the body and the others into their own buffers, appended after it.
+ * <p>
+ * With a body size budget, the events are rendered newest first, triggering events before the others,
+ * until the budget is exhausted, then the rendered events are written in their original order after a
+ * notice of the omitted ones. Repeated lines and long stack traces of every event are collapsed first.
+ * An event is kept or omitted in all the parts.
+ * <p>
+ * Instead of inlining the buffered events, they can be attached: only the triggering events are written
+ * in the content, and all the events are formatted again through a {@link Deflater} into a gzip attachment,
+ * Base64-encoded as the compressed bytes come, so the uncompressed context is never held in memory.
+ * <p>
+ * A writer is reused from one request to the next, so it is not thread-safe.
+ */
+final class MailBodyWriter implements ByteBufferDestination {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_START = "\"content\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PART_TYPE = "{\"type\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PART_VALUE = "\",\"value\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PART_END = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_END = "]".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ATTACHMENT_START = ",\"attachments\":[{\"content\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ATTACHMENT_TYPE = "\",\"type\":\"application/gzip\",\"filename\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ATTACHMENT_END = "\",\"disposition\":\"attachment\"}]".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final LogEvent[] NO_EVENTS = new LogEvent[0];
+    static final int MAX_STACK_FRAMES = 20;
+    // room kept for the notice of the omitted events
+    private static final int NOTICE_SIZE = 64;
+
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Buffer body = new Buffer();
+    // the content of the parts after the first
+    private Buffer[] parts = new Buffer[0];
+    // the escaped events rendered newest first per part, and their offsets in it by original position and part
+    private Buffer[] rendered = new Buffer[0];
+    private int[] offsets = new int[0];
+    // the compression of the attached events, created on first use
+    private Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private byte[] deflated;
+    private boolean deflating;
+    // the bytes waiting for a full Base64 quantum
+    private final byte[] quantum = new byte[3];
+    private int quantumCount;
+    // the buffer being written, whose array and size are held below
+    private Buffer target = body;
+    private byte[] bytes = body.bytes;
+    private int count;
+
+    /**
+     * Write the request body with a content part per layout, in a single pass over the events.
+     *
+     * @param envelope      The JSON of the message without content.
+     * @param contentTypes  The MIME type of each part, in the order SendGrid expects them, i.e. {@code text/plain} first.
+     * @param layouts       The layout formatting the events of each part.
+     * @param mails         The mails whose events make up the content.
+     * @param maxBodyBytes  The size the content is kept under, except for the last triggering event, {@code 0} for no limit.
+     * @param cache         The events already formatted by one of the layouts, may be null.
+     * @param attachContext Write only the triggering events in the content, and all the events formatted by
+     *                      the first layout in a gzip attachment?
+     */
+    void write(final String envelope, final String[] contentTypes, final Layout<?>[] layouts, final List<PendingMail> mails,
+               final int maxBodyBytes, final RenderCache cache, final boolean attachContext) {
+        final List<PendingMail> inline = attachContext ? triggers(mails) : mails;
+        switchTo(body);
+        count = 0;
+        encodeBuffer.clear();
+        final int end = envelope.lastIndexOf('}');
+        if (end < 0) {
+            throw new IllegalArgumentException("Not a JSON object: " + envelope);
+        }
+        final String head = envelope.substring(0, end);
+        writeRaw(head.getBytes(StandardCharsets.UTF_8));
+        if (head.trim().length() > 1) {
+            writeRaw(',');
+        }
+        writeRaw(CONTENT_START);
+        final int size = layouts.length;
+        // the layout output is escaped byte by byte, which is only valid for UTF-8
+        final Charset[] charsets = new Charset[size];
+        final boolean[] streaming = new boolean[size];
+        for (int p = 0; p < size; p++) {
+            charsets[p] = layouts[p] instanceof StringLayout ? ((StringLayout) layouts[p]).getCharset() : null;
+            streaming[p] = charsets[p] == null || StandardCharsets.UTF_8.equals(charsets[p]);
+        }
+        if (maxBodyBytes > 0) {
+            int overhead = count + CONTENT_END.length + 1 + size - 1;
+            for (int p = 0; p < size; p++) {
+                overhead += PART_TYPE.length + contentTypes[p].length() + PART_VALUE.length + PART_END.length + NOTICE_SIZE
+                        + length(layouts[p].getHeader()) + length(layouts[p].getFooter());
+            }
+            int total = 0;
+            for (final PendingMail mail : inline) {
+                total += mail.priorEvents.length + 1;
+            }
+            final int omitted = renderWithin(maxBodyBytes - overhead, total, layouts, inline, cache);
+            for (int p = 0; p < size; p++) {
+                writePartStart(p, contentTypes[p]);
+                writeText(layouts[p].getHeader(), charsets[p]);
+                writeWithin(p, size, total, omitted, "text/html".equals(contentTypes[p]));
+                writeText(layouts[p].getFooter(), charsets[p]);
+                writeRaw(PART_END);
+            }
+        } else {
+            ensureParts(size - 1);
+            for (int p = 1; p < size; p++) {
+                switchTo(parts[p - 1]);
+                count = 0;
+                writeText(layouts[p].getHeader(), charsets[p]);
+            }
+            switchTo(body);
+            writePartStart(0, contentTypes[0]);
+            writeText(layouts[0].getHeader(), charsets[0]);
+            for (final PendingMail mail : inline) {
+                for (final LogEvent priorEvent : mail.priorEvents) {
+                    writeEvent(layouts, priorEvent, streaming, cache);
+                }
+                writeEvent(layouts, mail.appendEvent, streaming, cache);
+            }
+            for (int p = 0; p < size; p++) {
+                if (p > 0) {
+                    writePartStart(p, contentTypes[p]);
+                    writeRaw(parts[p - 1].bytes, 0, parts[p - 1].count);
+                }
+                writeText(layouts[p].getFooter(), charsets[p]);
+                writeRaw(PART_END);
+            }
+        }
+        writeRaw(CONTENT_END);
+        if (inline != mails) {
+            writeAttachment(contentTypes[0], layouts[0], charsets[0], streaming[0], mails, cache);
+        }
+        writeRaw('}');
+    }
+
+    /**
+     * @return the mails without their prior events, or the mails themselves if none has any.
+     */
+    private static List<PendingMail> triggers(final List<PendingMail> mails) {
+        boolean context = false;
+        for (final PendingMail mail : mails) {
+            context |= mail.priorEvents.length > 0;
+        }
+        if (!context) {
+            return mails;
+        }
+        final List<PendingMail> triggers = new ArrayList<>(mails.size());
+        for (final PendingMail mail : mails) {
+            triggers.add(new PendingMail(mail.layout, NO_EVENTS, mail.appendEvent, mail.recipients, mail.configuration));
+        }
+        return triggers;
+    }
+
+    /**
+     * Write all the events formatted by a layout as a gzip attachment, compressing and encoding them as they are formatted.
+     */
+    private void writeAttachment(final String contentType, final Layout<?> layout, final Charset charset,
+                                 final boolean streaming, final List<PendingMail> mails, final RenderCache cache) {
+        writeRaw(ATTACHMENT_START);
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflated = new byte[BUFFER_SIZE];
+        }
+        crc.reset();
+        quantumCount = 0;
+        writeBase64(GzipEncoder.HEADER, 0, GzipEncoder.HEADER.length);
+        deflating = true;
+        try {
+            writeText(layout.getHeader(), charset);
+            for (final PendingMail mail : mails) {
+                for (final LogEvent priorEvent : mail.priorEvents) {
+                    writeEvent(layout, priorEvent, streaming, cache);
+                }
+                writeEvent(layout, mail.appendEvent, streaming, cache);
+            }
+            writeText(layout.getFooter(), charset);
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeBase64(deflated, 0, deflater.deflate(deflated));
+            }
+            final int size = (int) deflater.getBytesRead();
+            final int checksum = (int) crc.getValue();
+            final byte[] trailer = {
+                    (byte) checksum, (byte) (checksum >>> 8), (byte) (checksum >>> 16), (byte) (checksum >>> 24),
+                    (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)};
+            writeBase64(trailer, 0, trailer.length);
+            finishBase64();
+        } finally {
+            deflating = false;
+            deflater.reset();
+        }
+        writeRaw(ATTACHMENT_TYPE);
+        writeRaw(("text/html".equals(contentType) ? "log4j-context.html.gz" : "log4j-context.log.gz")
+                .getBytes(StandardCharsets.US_ASCII));
+        writeRaw(ATTACHMENT_END);
+    }
+
+    /**
+     * Compress formatted bytes of the attachment.
+     */
+    private void deflate(final byte[] data, final int offset, final int length) {
+        crc.update(data, offset, length);
+        deflater.setInput(data, offset, length);
+        while (!deflater.needsInput()) {
+            writeBase64(deflated, 0, deflater.deflate(deflated));
+        }
+    }
+
+    private void writeBase64(final byte[] data, final int offset, final int length) {
+        ensureCapacity((quantumCount + length) / 3 * 4);
+        for (int i = offset; i < offset + length; i++) {
+            quantum[quantumCount++] = data[i];
+            if (quantumCount == 3) {
+                final int bits = (quantum[0] & 0xff) << 16 | (quantum[1] & 0xff) << 8 | quantum[2] & 0xff;
+                bytes[count++] = BASE64[bits >>> 18];
+                bytes[count++] = BASE64[bits >>> 12 & 0x3f];
+                bytes[count++] = BASE64[bits >>> 6 & 0x3f];
+                bytes[count++] = BASE64[bits & 0x3f];
+                quantumCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Encode the last bytes of the attachment, padded to a full quantum.
+     */
+    private void finishBase64() {
+        if (quantumCount == 0) {
+            return;
+        }
+        final int bits = (quantum[0] & 0xff) << 16 | (quantumCount == 2 ? (quantum[1] & 0xff) << 8 : 0);
+        writeRaw(BASE64[bits >>> 18]);
+        writeRaw(BASE64[bits >>> 12 & 0x3f]);
+        writeRaw(quantumCount == 2 ? BASE64[bits >>> 6 & 0x3f] : '=');
+        writeRaw('=');
+        quantumCount = 0;
+    }
+
+    private void writePartStart(final int part, final String contentType) {
+        if (part > 0) {
+            writeRaw(',');
+        }
+        writeRaw(PART_TYPE);
+        writeEscaped(contentType.getBytes(StandardCharsets.UTF_8));
+        writeRaw(PART_VALUE);
+    }
+
+    /**
+     * Format an event by every layout, each into the buffer of its part.
+     */
+    private void writeEvent(final Layout<?>[] layouts, final LogEvent event, final boolean[] streaming,
+                            final RenderCache cache) {
+        writeEvent(layouts[0], event, streaming[0], cache);
+        if (layouts.length > 1) {
+            for (int p = 1; p < layouts.length; p++) {
+                switchTo(parts[p - 1]);
+                writeEvent(layouts[p], event, streaming[p], cache);
+            }
+            switchTo(body);
+        }
+    }
+
+    /**
+     * Render the events that fit in the budget into the buffers of their parts,
+     * the triggering events first and the newest first.
+     *
+     * @return the number of omitted events.
+     */
+    private int renderWithin(final int budget, final int total, final Layout<?>[] layouts, final List<PendingMail> mails,
+                             final RenderCache cache) {
+        final int size = layouts.length;
+        if (offsets.length < total * size * 2) {
+            offsets = new int[total * size * 2];
+        }
+        Arrays.fill(offsets, 0, total * size * 2, -1);
+        if (rendered.length < size) {
+            rendered = Arrays.copyOf(rendered, size);
+        }
+        for (int p = 0; p < size; p++) {
+            if (rendered[p] == null) {
+                rendered[p] = new Buffer();
+            }
+            rendered[p].count = 0;
+        }
+        int used = 0;
+        int kept = 0;
+        try {
+            int position = total;
+            for (int i = mails.size() - 1; i >= 0 && used >= 0; i--) {
+                position--;
+                used = renderWithin(budget, used, layouts, mails.get(i).appendEvent, position, kept == 0, cache);
+                position -= mails.get(i).priorEvents.length;
+                kept += used >= 0 ? 1 : 0;
+            }
+            position = total;
+            for (int i = mails.size() - 1; i >= 0 && used >= 0; i--) {
+                final LogEvent[] priorEvents = mails.get(i).priorEvents;
+                position--;
+                for (int j = priorEvents.length - 1; j >= 0 && used >= 0; j--) {
+                    used = renderWithin(budget, used, layouts, priorEvents[j], position - priorEvents.length + j, false, cache);
+                    kept += used >= 0 ? 1 : 0;
+                }
+                position -= priorEvents.length;
+            }
+        } finally {
+            switchTo(body);
+        }
+        return total - kept;
+    }
+
+    /**
+     * Render an event by every layout into the events buffers, unless it does not fit in the budget.
+     *
+     * @return the size used by the rendered events, or {@code -1} if the budget is exhausted.
+     */
+    private int renderWithin(final int budget, final int used, final Layout<?>[] layouts, final LogEvent event,
+                             final int position, final boolean required, final RenderCache cache) {
+        final int size = layouts.length;
+        int added = 0;
+        for (int p = 0; p < size; p++) {
+            switchTo(rendered[p]);
+            final int start = count;
+            writeEscaped(collapse(render(layouts[p], event, cache)).getBytes(StandardCharsets.UTF_8));
+            offsets[(position * size + p) * 2] = start;
+            offsets[(position * size + p) * 2 + 1] = count;
+            added += count - start;
+        }
+        if (used + added > budget && !required) {
+            for (int p = 0; p < size; p++) {
+                switchTo(rendered[p]);
+                count = offsets[(position * size + p) * 2];
+                offsets[(position * size + p) * 2] = -1;
+            }
+            return -1;
+        }
+        return used + added;
+    }
+
+    /**
+     * Write the notice of the omitted events, then the rendered events of a part in their original order.
+     */
+    private void writeWithin(final int part, final int size, final int total, final int omitted, final boolean html) {
+        if (omitted > 0) {
+            final String notice = omitted + (omitted == 1 ? " earlier event omitted" : " earlier events omitted");
+            writeEscaped((html ? "<p>" + notice + "</p>\n" : notice + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < total; i++) {
+            final int start = offsets[(i * size + part) * 2];
+            if (start >= 0) {
+                writeRaw(rendered[part].bytes, start, offsets[(i * size + part) * 2 + 1] - start);
+            }
+        }
+    }
+
+    /**
+     * Collapse the repeats of a line and the stack frames beyond {@value #MAX_STACK_FRAMES} in a row.
+     *
+     * @param text The rendered event.
+     * @return the collapsed text.
+     */
+    static String collapse(final String text) {
+        if (text.indexOf('\n') < 0) {
+            return text;
+        }
+        final StringBuilder out = new StringBuilder(text.length());
+        int previous = -1;
+        int previousEnd = -1;
+        boolean previousSkipped = false;
+        int repeats = 0;
+        int frames = 0;
+        int skipped = 0;
+        int start = 0;
+        while (start < text.length()) {
+            final int newline = text.indexOf('\n', start);
+            final int end = newline < 0 ? text.length() : newline + 1;
+            if (previous >= 0 && end - start == previousEnd - previous
+                    && text.regionMatches(start, text, previous, end - start)) {
+                if (previousSkipped) {
+                    skipped++;
+                } else {
+                    repeats++;
+                }
+                start = end;
+                continue;
+            }
+            if (repeats > 0) {
+                appendNotice(out, text, previous, previousEnd, "... repeated " + repeats + " more times");
+                repeats = 0;
+            }
+            if (isStackFrame(text, start, end)) {
+                if (++frames > MAX_STACK_FRAMES) {
+                    skipped++;
+                    previous = start;
+                    previousEnd = end;
+                    previousSkipped = true;
+                    start = end;
+                    continue;
+                }
+            } else {
+                if (skipped > 0) {
+                    appendNotice(out, text, previous, previousEnd, "... " + skipped + " frames omitted");
+                    skipped = 0;
+                }
+                frames = 0;
+            }
+            out.append(text, start, end);
+            previous = start;
+            previousEnd = end;
+            previousSkipped = false;
+            start = end;
+        }
+        if (repeats > 0) {
+            appendNotice(out, text, previous, previousEnd, "... repeated " + repeats + " more times");
+        }
+        if (skipped > 0) {
+            appendNotice(out, text, previous, previousEnd, "... " + skipped + " frames omitted");
+        }
+        return out.toString();
+    }
+
+    private static boolean isStackFrame(final String text, final int start, final int end) {
+        int i = start;
+        while (i < end) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                i++;
+            } else if (text.startsWith("&nbsp;", i)) {
+                // the indentation of the HTML layout
+                i += 6;
+            } else {
+                break;
+            }
+        }
+        return text.startsWith("at ", i);
+    }
+
+    /**
+     * Append a notice in place of collapsed lines, with the indentation and line ending of the last of them.
+     */
+    private static void appendNotice(final StringBuilder out, final String text, final int start, final int end,
+                                     final String notice) {
+        int indent = start;
+        while (indent < end && (Character.isWhitespace(text.charAt(indent)) || text.startsWith("&nbsp;", indent))) {
+            indent += text.charAt(indent) == '&' ? 6 : 1;
+        }
+        int lineEnd = end;
+        while (lineEnd > indent && (text.charAt(lineEnd - 1) == '\n' || text.charAt(lineEnd - 1) == '\r')) {
+            lineEnd--;
+        }
+        out.append(text, start, Math.min(indent, lineEnd)).append(notice);
+        if (text.startsWith("<br />", lineEnd - 6) && lineEnd - 6 >= indent) {
+            out.append("<br />");
+        }
+        out.append(text, lineEnd, end);
+    }
+
+    private void ensureParts(final int size) {
+        if (parts.length < size) {
+            parts = Arrays.copyOf(parts, size);
+            for (int p = 0; p < size; p++) {
+                if (parts[p] == null) {
+                    parts[p] = new Buffer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Direct the writes to another buffer, keeping the state of the current one.
+     */
+    private void switchTo(final Buffer buffer) {
+        target.bytes = bytes;
+        target.count = count;
+        target = buffer;
+        bytes = buffer.bytes;
+        count = buffer.count;
+    }
+
+    private static int length(final byte[] text) {
+        return text == null ? 0 : text.length;
+    }
+
+    private void writeEvent(final Layout<?> layout, final LogEvent event, final boolean streaming, final RenderCache cache) {
+        final String rendered = cache != null && cache.isFor(layout) ? cache.get(event) : null;
+        if (streaming && rendered == null && layout instanceof StringLayout) {
+            layout.encode(event, this);
+            drain(encodeBuffer);
+        } else {
+            writeEscaped((rendered != null ? rendered : render(layout, event, cache)).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String render(final Layout<?> layout, final LogEvent event, final RenderCache cache) {
+        return cache != null && cache.isFor(layout) ? cache.render(event) : String.valueOf(layout.toSerializable(event));
+    }
+
+    private void writeText(final byte[] text, final Charset charset) {
+        if (text == null) {
+            return;
+        }
+        if (charset == null || StandardCharsets.UTF_8.equals(charset)) {
+            writeEscaped(text, 0, text.length);
+        } else {
+            writeEscaped(new String(text, charset).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the body bytes, valid up to {@link #length()} until the next {@link #write}.
+     */
+    byte[] array() {
+        return bytes;
+    }
+
+    int length() {
+        return count;
+    }
+
+    /**
+     * @return false if the writer grew too large to be kept for the next request.
+     */
+    boolean isReusable() {
+        return bytes.length <= MAX_RETAINED_CAPACITY && Arrays.stream(parts).allMatch(MailBodyWriter::isReusable)
+                && Arrays.stream(rendered).allMatch(MailBodyWriter::isReusable);
+    }
+
+    /**
+     * Release the native memory of the compression of attachments.
+     */
+    void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private static boolean isReusable(final Buffer buffer) {
+        return buffer == null || buffer.bytes.length <= MAX_RETAINED_CAPACITY;
+    }
+
+    /**
+     * @return a copy of the body bytes.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, count, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return encodeBuffer;
+    }
+
+    @Override
+    public ByteBuffer drain(final ByteBuffer buf) {
+        buf.flip();
+        writeBytes(buf);
+        buf.clear();
+        return buf;
+    }
+
+    @Override
+    public void writeBytes(final ByteBuffer data) {
+        if (data.hasArray()) {
+            writeEscaped(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else if (deflating) {
+            final byte[] chunk = new byte[data.remaining()];
+            data.get(chunk);
+            deflate(chunk, 0, chunk.length);
+        } else {
+            while (data.hasRemaining()) {
+                writeEscaped(data.get());
+            }
+        }
+    }
+
+    @Override
+    public void writeBytes(final byte[] data, final int offset, final int length) {
+        // anything left in the encode buffer was written first
+        drain(encodeBuffer);
+        writeEscaped(data, offset, length);
+    }
+
+    private void writeEscaped(final byte[] data) {
+        writeEscaped(data, 0, data.length);
+    }
+
+    private void writeEscaped(final byte[] data, final int offset, final int length) {
+        if (deflating) {
+            deflate(data, offset, length);
+            return;
+        }
+        ensureCapacity(length);
+        for (int i = offset; i < offset + length; i++) {
+            writeEscaped(data[i]);
+        }
+    }
+
+    private void writeEscaped(final byte b) {
+        // bytes of multi-byte UTF-8 sequences are all negative and never need escaping
+        if (b >= 0x20 && b != '"' && b != '\\') {
+            writeRaw(b);
+            return;
+        }
+        switch (b) {
+            case '"':
+            case '\\':
+                writeRaw('\\');
+                writeRaw(b);
+                break;
+            case '\n':
+                writeRaw('\\');
+                writeRaw('n');
+                break;
+            case '\r':
+                writeRaw('\\');
+                writeRaw('r');
+                break;
+            case '\t':
+                writeRaw('\\');
+                writeRaw('t');
+                break;
+            case '\b':
+                writeRaw('\\');
+                writeRaw('b');
+                break;
+            case '\f':
+                writeRaw('\\');
+                writeRaw('f');
+                break;
+            default:
+                if (b < 0) {
+                    writeRaw(b);
+                } else {
+                    writeRaw('\\');
+                    writeRaw('u');
+                    writeRaw('0');
+                    writeRaw('0');
+                    writeRaw(HEX[b >> 4]);
+                    writeRaw(HEX[b & 0xf]);
+                }
+                break;
+        }
+    }
+
+    private void writeRaw(final byte[] data) {
+        writeRaw(data, 0, data.length);
+    }
+
+    private void writeRaw(final byte[] data, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, bytes, count, length);
+        count += length;
+    }
+
+    private void writeRaw(final int b) {
+        if (count == bytes.length) {
+            ensureCapacity(1);
+        }
+        bytes[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (count + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, count + length));
+        }
+    }
+
+    /**
+     * A growable byte array, to write into.
+     */
+    private static final class Buffer {
+        private byte[] bytes = new byte[BUFFER_SIZE];
+        private int count;
+    }
+}
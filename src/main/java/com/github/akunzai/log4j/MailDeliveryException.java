@@ -0,0 +1,33 @@
+package com.github.akunzai.log4j;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the SendGrid API answered a request with an error status.
+ */
+final class MailDeliveryException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    MailDeliveryException(final String message, final int statusCode, final long retryAfterMillis, final Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the HTTP status code of the response.
+     */
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the delay requested by the {@code Retry-After} header, or -1 if there was none.
+     */
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
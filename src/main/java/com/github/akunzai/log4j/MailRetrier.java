@@ -0,0 +1,150 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries failed requests with exponential backoff and jitter on a dedicated daemon thread,
+ * so that neither the logging thread nor the asynchronous sender waits for SendGrid to recover.
+ * <p>
+ * Only network errors, {@code 429 Too Many Requests} and {@code 5xx} responses are retried, honoring
+ * the {@code Retry-After} header. The number of pending retries is bounded, so that an outage can not
+ * pile up request bodies in memory.
+ */
+final class MailRetrier {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private final String name;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxPendingRetries;
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * A request whose body is already serialized.
+     */
+    interface Delivery {
+        void send() throws IOException;
+
+        /**
+         * Called once the delivery is given up.
+         *
+         * @param failure The failure of the last attempt.
+         */
+        default void failed(final IOException failure) {
+        }
+    }
+
+    MailRetrier(final String name,
+                final int maxAttempts,
+                final long baseBackoffMillis,
+                final long maxBackoffMillis,
+                final int maxPendingRetries) {
+        this.name = name;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = Math.max(1, baseBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.baseBackoffMillis, maxBackoffMillis);
+        this.maxPendingRetries = maxPendingRetries;
+        this.executor = new ScheduledThreadPoolExecutor(1, Log4jThreadFactory.createDaemonThreadFactory("SendGrid-Retry"));
+        // pending retries are dropped on shutdown instead of delaying it by their backoff
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Schedule another attempt of a failed delivery.
+     *
+     * @param delivery The failed delivery.
+     * @param attempt  The number of attempts made so far.
+     * @param failure  The failure of the last attempt.
+     * @return true if a retry was scheduled, false if the failure is final.
+     */
+    boolean retry(final Delivery delivery, final int attempt, final IOException failure) {
+        if (attempt >= maxAttempts || !isRetryable(failure)) {
+            return false;
+        }
+        if (pendingRetries.incrementAndGet() > maxPendingRetries) {
+            pendingRetries.decrementAndGet();
+            LOGGER.warn("SendGrid {} has {} retries pending, not retrying e-mail notification", name, maxPendingRetries);
+            return false;
+        }
+        final long delayMillis = delayMillis(attempt, failure);
+        try {
+            executor.schedule(() -> run(delivery, attempt + 1), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            pendingRetries.decrementAndGet();
+            return false;
+        }
+        LOGGER.warn("SendGrid {} attempt {} of {} failed, retrying in {} ms: {}",
+                name, attempt, maxAttempts, delayMillis, failure.getMessage());
+        return true;
+    }
+
+    private void run(final Delivery delivery, final int attempt) {
+        pendingRetries.decrementAndGet();
+        try {
+            delivery.send();
+        } catch (final IOException e) {
+            if (!retry(delivery, attempt, e)) {
+                LOGGER.error("SendGrid {} failed to send e-mail notification after {} attempts", name, attempt, e);
+                delivery.failed(e);
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.error("SendGrid {} failed to send e-mail notification", name, e);
+        }
+    }
+
+    static boolean isRetryable(final IOException failure) {
+        if (failure instanceof MailDeliveryException) {
+            final int statusCode = ((MailDeliveryException) failure).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        // an interrupted sender is being stopped, but a read timeout is worth another attempt
+        return !(failure instanceof InterruptedIOException) || failure instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Compute the delay before the next attempt: the exponential backoff with equal jitter,
+     * or the delay requested by the server if that is longer.
+     */
+    long delayMillis(final int attempt, final IOException failure) {
+        final long backoff = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        if (failure instanceof MailDeliveryException) {
+            return Math.max(delay, ((MailDeliveryException) failure).getRetryAfterMillis());
+        }
+        return delay;
+    }
+
+    /**
+     * Stop the retry thread, dropping the retries not yet due.
+     *
+     * @param timeout  the maximum time to wait for a running attempt.
+     * @param timeUnit the unit of the timeout.
+     * @return true if the retry thread has stopped.
+     */
+    boolean stop(final long timeout, final TimeUnit timeUnit) {
+        executor.shutdown();
+        final int dropped = pendingRetries.getAndSet(0);
+        if (dropped > 0) {
+            LOGGER.warn("SendGrid {} stopped with {} e-mail notifications waiting to be retried", name, dropped);
+        }
+        try {
+            return executor.awaitTermination(timeout > 0 ? timeout : 0, timeUnit);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
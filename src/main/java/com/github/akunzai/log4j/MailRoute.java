@@ -0,0 +1,77 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+/**
+ * A routing rule of the {@link SendGridAppender}: the recipients of the emails triggered by the events
+ * whose {@link RouteSource routing value} matches.
+ */
+@Plugin(name = "MailRoute", category = Core.CATEGORY_NAME, printObject = true)
+public final class MailRoute {
+    private final String match;
+    private final String to;
+    private final String cc;
+    private final String bcc;
+
+    private MailRoute(final String match, final String to, final String cc, final String bcc) {
+        this.match = match;
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+    }
+
+    /**
+     * Create a routing rule.
+     *
+     * @param match The {@code ThreadContext} value, marker name or logger name prefix to match.
+     * @param to    The comma-separated list of recipient email addresses.
+     * @param cc    The comma-separated list of CC email addresses.
+     * @param bcc   The comma-separated list of BCC email addresses.
+     * @return the routing rule.
+     */
+    @PluginFactory
+    public static MailRoute createRoute(
+            @PluginAttribute("match") @Required final String match,
+            @PluginAttribute("to") @Required final String to,
+            @PluginAttribute("cc") final String cc,
+            @PluginAttribute("bcc") final String bcc) {
+        return new MailRoute(match, to, cc, bcc);
+    }
+
+    /**
+     * @return the value to match.
+     */
+    public String getMatch() {
+        return match;
+    }
+
+    /**
+     * @return the comma-separated list of recipient email addresses.
+     */
+    public String getTo() {
+        return to;
+    }
+
+    /**
+     * @return the comma-separated list of CC email addresses.
+     */
+    public String getCc() {
+        return cc;
+    }
+
+    /**
+     * @return the comma-separated list of BCC email addresses.
+     */
+    public String getBcc() {
+        return bcc;
+    }
+
+    @Override
+    public String toString() {
+        return match + "=" + to + ":" + cc + ":" + bcc;
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.helpers.mail.objects.Personalization;
+import jakarta.mail.Message;
+import jakarta.mail.internet.AddressException;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the recipients of an email from its triggering event, so that a single appender can mail
+ * each tenant or team its own errors.
+ * <p>
+ * The recipients of every routing rule are parsed once into a {@link Personalization}, and the rules are
+ * indexed by the value they match. An event matching several rules, e.g. a logger name matching nested
+ * prefixes, is sent once with a personalization per rule, so every recipient group gets its own copy.
+ * The groups resolved for a logger name are cached, so routing an event costs a lookup. Markers are resolved
+ * on every event instead, as their parents may be added at any time; a marker without parents costs a lookup too.
+ */
+final class MailRouter {
+    private static final Personalization[] DEFAULT = new Personalization[0];
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    private final RouteSource source;
+    private final String contextKey;
+    private final Map<String, Personalization[]> routes;
+    private final Map<String, Personalization[]> resolved = new ConcurrentHashMap<>();
+
+    MailRouter(final RouteSource source, final String contextKey, final MailRoute[] routes) throws AddressException {
+        this.source = source;
+        this.contextKey = contextKey;
+        final Map<String, Personalization[]> index = new HashMap<>();
+        for (final MailRoute route : routes) {
+            if (route.getTo() == null || route.getTo().trim().isEmpty()) {
+                throw new AddressException("Missing recipients of the routing rule matching " + route.getMatch());
+            }
+            final Personalization personalization = new SendGridMessageBuilder()
+                    .setRecipients(Message.RecipientType.TO, route.getTo())
+                    .setRecipients(Message.RecipientType.CC, route.getCc())
+                    .setRecipients(Message.RecipientType.BCC, route.getBcc())
+                    .build()
+                    .getPersonalization()
+                    .get(0);
+            index.merge(route.getMatch(), new Personalization[]{personalization}, MailRouter::concat);
+        }
+        this.routes = index;
+    }
+
+    /**
+     * @param source What the recipients are routed by.
+     * @param routes The routing rules, may be null.
+     * @return true if emails are routed by these settings.
+     */
+    static boolean isEnabled(final RouteSource source, final MailRoute[] routes) {
+        return source != null && source != RouteSource.NONE && routes != null && routes.length > 0;
+    }
+
+    /**
+     * Resolve the recipients of an email.
+     *
+     * @param appendEvent The event that triggered the email.
+     * @return the personalizations of the matching rules, or null to send to the configured recipients.
+     */
+    Personalization[] route(final LogEvent appendEvent) {
+        Personalization[] personalizations = null;
+        if (source == RouteSource.CONTEXT) {
+            final String value = contextKey == null ? null : appendEvent.getContextData().getValue(contextKey);
+            personalizations = value == null ? null : routes.get(value);
+        } else if (source == RouteSource.MARKER) {
+            final Marker marker = appendEvent.getMarker();
+            if (marker != null && !marker.hasParents()) {
+                personalizations = routes.get(marker.getName());
+            } else if (marker != null) {
+                final List<Personalization> matches = new ArrayList<>();
+                collect(marker, matches);
+                personalizations = matches.toArray(new Personalization[0]);
+            }
+        } else if (source == RouteSource.LOGGER) {
+            final String loggerName = appendEvent.getLoggerName() == null ? "" : appendEvent.getLoggerName();
+            personalizations = resolved.get(loggerName);
+            if (personalizations == null) {
+                final List<Personalization> matches = new ArrayList<>();
+                collect(loggerName, matches);
+                personalizations = cache(loggerName, matches);
+            }
+        }
+        return personalizations == null || personalizations.length == 0 ? null : personalizations;
+    }
+
+    private Personalization[] cache(final String name, final List<Personalization> matches) {
+        final Personalization[] personalizations = matches.isEmpty() ? DEFAULT : matches.toArray(new Personalization[0]);
+        // loggers are usually few, but their names are not bounded
+        if (resolved.size() < MAX_CACHED_NAMES) {
+            resolved.put(name, personalizations);
+        }
+        return personalizations;
+    }
+
+    /**
+     * Collect the rules matching a marker or one of its ancestors.
+     */
+    private void collect(final Marker marker, final List<Personalization> matches) {
+        add(routes.get(marker.getName()), matches);
+        if (marker.hasParents()) {
+            for (final Marker parent : marker.getParents()) {
+                collect(parent, matches);
+            }
+        }
+    }
+
+    /**
+     * Collect the rules matching a logger name or one of its dotted prefixes, the most specific first.
+     */
+    private void collect(final String loggerName, final List<Personalization> matches) {
+        String prefix = loggerName;
+        while (true) {
+            add(routes.get(prefix), matches);
+            if (prefix.isEmpty()) {
+                return;
+            }
+            final int dot = prefix.lastIndexOf('.');
+            prefix = dot < 0 ? "" : prefix.substring(0, dot);
+        }
+    }
+
+    private static void add(final Personalization[] personalizations, final List<Personalization> matches) {
+        if (personalizations == null) {
+            return;
+        }
+        for (final Personalization personalization : personalizations) {
+            if (!matches.contains(personalization)) {
+                matches.add(personalization);
+            }
+        }
+    }
+
+    private static Personalization[] concat(final Personalization[] first, final Personalization[] second) {
+        final Personalization[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,310 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the serialized requests that could not be delivered in memory-mapped segment files,
+ * and replays them on a background thread once SendGrid is reachable again.
+ * <p>
+ * Records are appended to fixed-size segments, each record carrying its length, the CRC of its body and
+ * its flags. The length is written last, so that a torn record reads as the end of the segment.
+ * A replayed record is flagged as delivered in place, and a segment is deleted once all its records are.
+ * When the segments exceed the size cap, the oldest one is dropped.
+ */
+final class MailSpool {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER_LENGTH = 9;
+    private static final byte GZIP = 1;
+    private static final byte DELIVERED = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final SpoolSync sync;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final ExecutorService replayExecutor;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private volatile boolean pending;
+    private Segment active;
+    private long nextSequence;
+    private long totalBytes;
+
+    /**
+     * Replays a spooled request.
+     */
+    interface Replayer {
+        void replay(byte[] body, boolean gzip) throws IOException;
+    }
+
+    MailSpool(final String directory, final int segmentSize, final long maxBytes, final SpoolSync sync) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentSize = Math.max(HEADER_LENGTH + 1, segmentSize);
+        this.maxBytes = maxBytes;
+        this.sync = sync == null ? SpoolSync.SEGMENT : sync;
+        Files.createDirectories(this.directory);
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, PREFIX + "*" + SUFFIX)) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        for (final Path file : files) {
+            final Segment segment = new Segment(file, map(file, Files.size(file), false));
+            segments.add(segment);
+            totalBytes += segment.buffer.capacity();
+            nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+        }
+        this.pending = !segments.isEmpty();
+        this.replayExecutor = Executors.newSingleThreadExecutor(Log4jThreadFactory.createDaemonThreadFactory("SendGrid-Spool"));
+    }
+
+    private static long sequenceOf(final Path file) {
+        final String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static MappedByteBuffer map(final Path file, final long size, final boolean create) throws IOException {
+        try (FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Append a request.
+     *
+     * @param body The serialized request body.
+     * @param gzip Whether the body is gzip-compressed.
+     * @return true if the request was spooled.
+     */
+    synchronized boolean append(final byte[] body, final boolean gzip) {
+        final int length = HEADER_LENGTH + body.length;
+        try {
+            if (active == null || active.writePosition + length > active.buffer.capacity()) {
+                rotate(length);
+            }
+            final MappedByteBuffer buffer = active.buffer;
+            final int position = active.writePosition;
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            buffer.put(position + 8, gzip ? GZIP : 0);
+            buffer.position(position + HEADER_LENGTH);
+            buffer.put(body);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.putInt(position, body.length);
+            active.writePosition += length;
+            if (sync == SpoolSync.RECORD) {
+                buffer.force();
+            }
+            pending = true;
+            return true;
+        } catch (final IOException e) {
+            LOGGER.error("Unable to spool e-mail notification to {}", directory, e);
+            return false;
+        }
+    }
+
+    private void rotate(final int length) throws IOException {
+        if (active != null && sync != SpoolSync.NONE) {
+            active.buffer.force();
+        }
+        final int size = Math.max(segmentSize, length);
+        while (!segments.isEmpty() && totalBytes + size > maxBytes) {
+            final Segment oldest = segments.removeFirst();
+            totalBytes -= oldest.buffer.capacity();
+            LOGGER.warn("Spool {} exceeds {} bytes, dropping {}", directory, maxBytes, oldest.file.getFileName());
+            Files.deleteIfExists(oldest.file);
+        }
+        final Path file = directory.resolve(String.format("%s%020d%s", PREFIX, nextSequence++, SUFFIX));
+        active = new Segment(file, map(file, size, true));
+        segments.add(active);
+        totalBytes += size;
+    }
+
+    /**
+     * @return true if records may be waiting to be replayed.
+     */
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Replay the spooled requests on the background thread, unless a replay is already running.
+     *
+     * @param replayer Sends a spooled request, throwing to stop the replay.
+     */
+    void replayAsync(final Replayer replayer) {
+        if (!replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            replayExecutor.execute(() -> {
+                try {
+                    replay(replayer);
+                } finally {
+                    replaying.set(false);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            replaying.set(false);
+        }
+    }
+
+    /**
+     * Replay the spooled requests in order, until all are delivered or one fails.
+     *
+     * @param replayer Sends a spooled request, throwing to stop the replay.
+     * @return the number of requests replayed.
+     */
+    int replay(final Replayer replayer) {
+        int replayed = 0;
+        while (true) {
+            final Record record;
+            synchronized (this) {
+                record = nextRecord();
+                if (record == null) {
+                    pending = false;
+                    if (replayed > 0) {
+                        LOGGER.info("Replayed {} spooled e-mail notifications from {}", replayed, directory);
+                    }
+                    return replayed;
+                }
+            }
+            try {
+                replayer.replay(record.body, record.gzip);
+            } catch (final IOException e) {
+                LOGGER.warn("Stopped replaying spooled e-mail notifications from {}: {}", directory, e.getMessage());
+                return replayed;
+            }
+            replayed++;
+            synchronized (this) {
+                // the segment may have been dropped by the size cap meanwhile
+                if (segments.contains(record.segment)) {
+                    final MappedByteBuffer buffer = record.segment.buffer;
+                    buffer.put(record.position + 8, (byte) (buffer.get(record.position + 8) | DELIVERED));
+                    record.segment.readPosition = record.position + HEADER_LENGTH + record.body.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the next record to replay, deleting the segments fully delivered.
+     *
+     * @return the record, or null if there is none.
+     */
+    private Record nextRecord() {
+        for (final Segment segment : new ArrayList<>(segments)) {
+            final MappedByteBuffer buffer = segment.buffer;
+            final int limit = segment == active ? segment.writePosition : buffer.capacity();
+            while (segment.readPosition + HEADER_LENGTH <= limit) {
+                final int position = segment.readPosition;
+                final int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_LENGTH + length > limit) {
+                    break;
+                }
+                if ((buffer.get(position + 8) & DELIVERED) == 0) {
+                    final byte[] body = new byte[length];
+                    buffer.position(position + HEADER_LENGTH);
+                    buffer.get(body);
+                    final CRC32 crc = new CRC32();
+                    crc.update(body, 0, length);
+                    if ((int) crc.getValue() == buffer.getInt(position + 4)) {
+                        return new Record(segment, position, body, (buffer.get(position + 8) & GZIP) != 0);
+                    }
+                    LOGGER.warn("Skipping the corrupt remainder of spool segment {}", segment.file.getFileName());
+                    break;
+                }
+                segment.readPosition = position + HEADER_LENGTH + length;
+            }
+            if (segment != active) {
+                segments.remove(segment);
+                totalBytes -= buffer.capacity();
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (final IOException e) {
+                    LOGGER.warn("Unable to delete spool segment {}", segment.file, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop the replay thread and force the active segment to disk.
+     *
+     * @param timeout  the maximum time to wait for a running replay.
+     * @param timeUnit the unit of the timeout.
+     * @return true if the replay thread has stopped.
+     */
+    boolean close(final long timeout, final TimeUnit timeUnit) {
+        replayExecutor.shutdownNow();
+        synchronized (this) {
+            if (active != null && sync != SpoolSync.NONE) {
+                active.buffer.force();
+            }
+        }
+        try {
+            return replayExecutor.awaitTermination(timeout > 0 ? timeout : 0, timeUnit);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class Record {
+        final Segment segment;
+        final int position;
+        final byte[] body;
+        final boolean gzip;
+
+        Record(final Segment segment, final int position, final byte[] body, final boolean gzip) {
+            this.segment = segment;
+            this.position = position;
+            this.body = body;
+            this.gzip = gzip;
+        }
+    }
+
+    private static final class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        int readPosition;
+
+        Segment(final Path file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
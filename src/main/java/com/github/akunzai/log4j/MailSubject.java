@@ -0,0 +1,112 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.logging.log4j.core.layout.AbstractStringLayout.Serializer;
+
+/**
+ * Renders the subject of an email from its triggering event.
+ * <p>
+ * A subject without pattern converters, lookups or escapes is constant, so it is capped once and
+ * no serializer is built for it. A patterned subject is formatted into a reused {@link StringBuilder},
+ * and capped in the same pass, so the only allocation per email is the resulting String.
+ */
+final class MailSubject {
+    private static final int MAX_REUSABLE_CAPACITY = 1024;
+    private static final char ELLIPSIS = '\u2026';
+
+    private final String constant;
+    private final Serializer serializer;
+    private final int maxLength;
+    private final AtomicReference<StringBuilder> idleBuilder = new AtomicReference<>();
+
+    private MailSubject(final String constant, final Serializer serializer, final int maxLength) {
+        this.constant = constant;
+        this.serializer = serializer;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @param configuration The configuration resolving the lookups of the pattern.
+     * @param pattern       The subject pattern, may be null.
+     * @param maxLength     The maximum number of characters of a subject, {@code 0} for no limit.
+     * @return the subject renderer.
+     */
+    static MailSubject create(final Configuration configuration, final String pattern, final int maxLength) {
+        final int limit = Math.max(0, maxLength);
+        if (isConstant(pattern)) {
+            return new MailSubject(pattern == null ? null : cap(new StringBuilder(pattern), limit).toString(), null, limit);
+        }
+        final Serializer serializer = PatternLayout.newSerializerBuilder()
+                .setConfiguration(configuration)
+                .setPattern(pattern)
+                .build();
+        return new MailSubject(null, serializer, limit);
+    }
+
+    /**
+     * @return the maximum number of characters of a subject, {@code 0} for no limit.
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param pattern The subject pattern, may be null.
+     * @return true if the pattern renders the same subject for every event.
+     */
+    static boolean isConstant(final String pattern) {
+        if (pattern == null) {
+            return true;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '%' || c == '$' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param event The event that triggered the email.
+     * @return the subject of the email, may be null.
+     */
+    String render(final LogEvent event) {
+        if (serializer == null) {
+            return constant;
+        }
+        StringBuilder builder = idleBuilder.getAndSet(null);
+        if (builder == null) {
+            builder = new StringBuilder(128);
+        }
+        try {
+            return cap(serializer.toSerializable(event, builder), maxLength).toString();
+        } finally {
+            // a huge subject is not kept around
+            if (builder.capacity() <= MAX_REUSABLE_CAPACITY) {
+                builder.setLength(0);
+                idleBuilder.set(builder);
+            }
+        }
+    }
+
+    /**
+     * Truncate a subject to the maximum length, ending it with an ellipsis and never splitting a surrogate pair.
+     */
+    private static StringBuilder cap(final StringBuilder subject, final int maxLength) {
+        if (maxLength <= 0 || subject.length() <= maxLength) {
+            return subject;
+        }
+        int end = maxLength - 1;
+        if (end > 0 && Character.isHighSurrogate(subject.charAt(end - 1))) {
+            end--;
+        }
+        subject.setLength(end);
+        return subject.append(ELLIPSIS);
+    }
+}
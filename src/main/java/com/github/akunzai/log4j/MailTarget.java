@@ -0,0 +1,43 @@
+package com.github.akunzai.log4j;
+
+/**
+ * A SendGrid endpoint of the delivery chain, with its transports and the circuit breaker keeping its health.
+ */
+final class MailTarget {
+    final String name;
+    final MailTransport transport;
+    final MailTransport gzipTransport;
+    final CircuitBreaker circuitBreaker;
+
+    MailTarget(final String name,
+               final MailTransport transport,
+               final MailTransport gzipTransport,
+               final CircuitBreaker circuitBreaker) {
+        this.name = name;
+        this.transport = transport;
+        this.gzipTransport = gzipTransport;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param compressed Whether the body is gzip-compressed.
+     * @return the transport able to send the body.
+     */
+    MailTransport transport(final boolean compressed) {
+        return compressed ? gzipTransport : transport;
+    }
+
+    /**
+     * @return true if the circuit breaker of the target lets calls through, without reserving a trial call.
+     */
+    boolean isClosed() {
+        return circuitBreaker == null || circuitBreaker.getState() == CircuitBreaker.State.CLOSED;
+    }
+
+    void close() {
+        if (gzipTransport != transport) {
+            gzipTransport.close();
+        }
+        transport.close();
+    }
+}
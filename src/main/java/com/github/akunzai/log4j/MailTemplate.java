@@ -0,0 +1,79 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.helpers.mail.Mail;
+import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.MailSettings;
+import com.sendgrid.helpers.mail.objects.Personalization;
+import com.sendgrid.helpers.mail.objects.Setting;
+import jakarta.mail.Message;
+import jakarta.mail.internet.AddressException;
+
+/**
+ * The parts of an e-mail message that do not change after configuration,
+ * parsed once so that only the subject and the content are filled per message.
+ */
+final class MailTemplate {
+    private static final MailSettings SANDBOX_MAIL_SETTINGS;
+
+    static {
+        final Setting setting = new Setting();
+        setting.setEnable(true);
+        SANDBOX_MAIL_SETTINGS = new MailSettings();
+        SANDBOX_MAIL_SETTINGS.setSandboxMode(setting);
+    }
+
+    private final Email from;
+    private final Email replyTo;
+    private final Personalization[] recipients;
+    private final MailSettings mailSettings;
+
+    MailTemplate(final SendGridManager.FactoryData data) throws AddressException {
+        final Mail message = new SendGridMessageBuilder()
+                .setFrom(data.from, data.fallbackFrom)
+                .setReplyTo(data.replyTo)
+                .setRecipients(Message.RecipientType.TO, data.to)
+                .setRecipients(Message.RecipientType.CC, data.cc)
+                .setRecipients(Message.RecipientType.BCC, data.bcc)
+                .build();
+        this.from = message.getFrom();
+        this.replyTo = message.getReplyto();
+        this.recipients = new Personalization[]{message.getPersonalization().get(0)};
+        this.mailSettings = data.sandboxMode ? SANDBOX_MAIL_SETTINGS : null;
+    }
+
+    /**
+     * @param routed The personalizations of the routed recipients, or null for the configured ones.
+     * @return the personalizations a message is sent to, which must not be modified.
+     */
+    Personalization[] recipients(final Personalization[] routed) {
+        return routed != null ? routed : recipients;
+    }
+
+    /**
+     * Create a message from the template.
+     * The parsed addresses are shared between messages and must not be modified.
+     *
+     * @param subject The email subject.
+     * @param routed  The personalizations of the routed recipients, or null for the configured ones.
+     * @return the message, without content.
+     */
+    Mail newMail(final String subject, final Personalization[] routed) {
+        final Mail message = new Mail();
+        if (from != null) {
+            message.setFrom(from);
+        }
+        if (replyTo != null) {
+            message.setReplyTo(replyTo);
+        }
+        for (final Personalization recipient : recipients(routed)) {
+            message.addPersonalization(recipient);
+        }
+        if (subject != null) {
+            message.setSubject(subject);
+        }
+        if (mailSettings != null) {
+            message.setMailSettings(mailSettings);
+        }
+        return message;
+    }
+}
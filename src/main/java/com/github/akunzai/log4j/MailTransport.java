@@ -0,0 +1,32 @@
+package com.github.akunzai.log4j;
+
+import java.io.IOException;
+
+/**
+ * Sends serialized requests to the SendGrid API.
+ */
+interface MailTransport {
+
+    /**
+     * Post a JSON request body.
+     *
+     * @param endpoint The API endpoint, e.g. {@code mail/send}.
+     * @param body     The UTF-8 JSON body, gzip-compressed if {@code gzip} is true.
+     * @param gzip     Whether the body is gzip-compressed.
+     * @throws IOException if the request failed or was not accepted.
+     */
+    void post(String endpoint, byte[] body, boolean gzip) throws IOException;
+
+    /**
+     * @return true if the transport can send gzip-compressed bodies.
+     */
+    default boolean supportsGzip() {
+        return false;
+    }
+
+    /**
+     * Release the connections and threads of the transport.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.akunzai.log4j;
+
+/**
+ * What the asynchronous delivery queue does when it is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the mail that could not be queued, keeping the ones already waiting.
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest waiting mail to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Block the logging thread until there is room or the overflow timeout elapses, then discard the new mail.
+     */
+    BLOCK
+}
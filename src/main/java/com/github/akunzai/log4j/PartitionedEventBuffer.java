@@ -0,0 +1,185 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Buffer keeping a small bounded buffer per thread or per {@code ThreadContext} value.
+ * <p>
+ * Each partition keeps up to {@code partitionSize} events, and the partitions share a global budget of
+ * {@code bufferSize} slots: no more than {@code bufferSize / partitionSize} partitions, and no more than
+ * {@code maxPartitions}, are kept at once, so memory stays bounded by the budget whatever the number of keys.
+ * <p>
+ * When the cap is reached, partitions idle for longer than {@code idleMillis} are evicted first, then the oldest one
+ * not written since it was last considered, which approximates least recently used eviction at a constant cost
+ * per new partition. Idle partitions are also evicted whenever an email is sent.
+ * An event added to a partition being evicted concurrently is added again to the partition now registered
+ * for its key, so that eviction drops the events it found rather than the newest one.
+ */
+final class PartitionedEventBuffer implements EventBuffer {
+    private static final String DEFAULT_PARTITION = "";
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    // the registered partitions, oldest first
+    private final Queue<Partition> order = new ConcurrentLinkedQueue<>();
+    private final BufferPartition partition;
+    private final String contextKey;
+    private final int maxPartitions;
+    private final long idleMillis;
+    private final int partitionSize;
+    private final IntFunction<EventBuffer> bufferFactory;
+
+    PartitionedEventBuffer(final BufferPartition partition,
+                           final String contextKey,
+                           final int maxPartitions,
+                           final long idleMillis,
+                           final int bufferSize,
+                           final int partitionSize,
+                           final IntFunction<EventBuffer> bufferFactory) {
+        this.partition = partition;
+        this.contextKey = contextKey;
+        this.partitionSize = Math.max(0, Math.min(partitionSize, bufferSize));
+        this.maxPartitions = Math.max(1, Math.min(maxPartitions,
+                this.partitionSize == 0 ? 1 : bufferSize / this.partitionSize));
+        this.idleMillis = idleMillis;
+        this.bufferFactory = bufferFactory;
+    }
+
+    private String keyOf(final LogEvent event) {
+        final String key;
+        if (partition == BufferPartition.THREAD) {
+            key = event.getThreadName();
+        } else {
+            key = contextKey == null ? null : event.getContextData().getValue(contextKey);
+        }
+        return key == null ? DEFAULT_PARTITION : key;
+    }
+
+    @Override
+    public void add(final LogEvent event) {
+        final String key = keyOf(event);
+        final long nowMillis = event.getTimeMillis();
+        Partition target = partitions.get(key);
+        for (int attempt = 0; ; attempt++) {
+            if (target == null) {
+                final Partition created = new Partition(key, bufferFactory.apply(partitionSize), nowMillis);
+                target = partitions.putIfAbsent(key, created);
+                if (target == null) {
+                    // queued once registered, so that eviction never mistakes it for an evicted one
+                    target = created;
+                    order.offer(created);
+                    if (partitions.size() > maxPartitions) {
+                        evict(nowMillis, created);
+                    }
+                }
+            }
+            target.touch(nowMillis);
+            target.buffer.add(event);
+            final Partition current = partitions.get(key);
+            if (current == target || attempt > 0) {
+                return;
+            }
+            // evicted meanwhile, the event goes once more to the partition now registered for the key
+            target = current;
+        }
+    }
+
+    @Override
+    public LogEvent[] removeAll() {
+        final List<LogEvent> events = new ArrayList<>();
+        for (final Partition target : partitions.values()) {
+            for (final LogEvent event : target.buffer.removeAll()) {
+                events.add(event);
+            }
+        }
+        events.sort((a, b) -> Long.compare(a.getTimeMillis(), b.getTimeMillis()));
+        return events.toArray(new LogEvent[0]);
+    }
+
+    @Override
+    public LogEvent[] removeContext(final LogEvent appendEvent) {
+        final Partition target = partitions.get(keyOf(appendEvent));
+        final LogEvent[] events = target == null ? new LogEvent[0] : target.buffer.removeAll();
+        evictIdle(appendEvent.getTimeMillis());
+        return events;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final Partition target : partitions.values()) {
+            size += target.buffer.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of partitions currently kept.
+     */
+    int partitions() {
+        return partitions.size();
+    }
+
+    private void evictIdle(final long nowMillis) {
+        order.removeIf(target -> nowMillis - target.lastAccessMillis > idleMillis && remove(target));
+    }
+
+    /**
+     * Evict partitions until the cap is met again, giving a second chance to those written since they were
+     * last considered. Every step either evicts a partition or clears a mark set by an add, so the cost is
+     * constant on average.
+     */
+    private void evict(final long nowMillis, final Partition keep) {
+        while (partitions.size() > maxPartitions) {
+            final Partition eldest = order.poll();
+            if (eldest == null) {
+                return;
+            }
+            if (partitions.get(eldest.key) != eldest) {
+                // already evicted
+                continue;
+            }
+            if (eldest != keep && (!eldest.written || nowMillis - eldest.lastAccessMillis > idleMillis)) {
+                remove(eldest);
+            } else {
+                eldest.written = false;
+                order.offer(eldest);
+            }
+        }
+    }
+
+    private boolean remove(final Partition target) {
+        partitions.remove(target.key, target);
+        return true;
+    }
+
+    private static final class Partition {
+        final String key;
+        final EventBuffer buffer;
+        volatile long lastAccessMillis;
+        volatile boolean written;
+
+        Partition(final String key, final EventBuffer buffer, final long lastAccessMillis) {
+            this.key = key;
+            this.buffer = buffer;
+            this.lastAccessMillis = lastAccessMillis;
+        }
+
+        void touch(final long nowMillis) {
+            // only write when it changes, so that concurrent producers of a partition share its cache line
+            if (lastAccessMillis != nowMillis) {
+                lastAccessMillis = nowMillis;
+            }
+            if (!written) {
+                written = true;
+            }
+        }
+    }
+}
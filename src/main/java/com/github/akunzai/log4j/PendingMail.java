@@ -0,0 +1,30 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.helpers.mail.objects.Personalization;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+
+/**
+ * Snapshot of a triggering event and the buffered events that preceded it.
+ */
+final class PendingMail {
+    final Layout<?> layout;
+    final LogEvent[] priorEvents;
+    final LogEvent appendEvent;
+    final Personalization[] recipients;
+    final Configuration configuration;
+
+    /**
+     * @param recipients    The routed recipients, or null for the configured ones.
+     * @param configuration The configuration of the appender that triggered the mail, or null.
+     */
+    PendingMail(final Layout<?> layout, final LogEvent[] priorEvents, final LogEvent appendEvent,
+                final Personalization[] recipients, final Configuration configuration) {
+        this.layout = layout;
+        this.priorEvents = priorEvents;
+        this.appendEvent = appendEvent;
+        this.recipients = recipients;
+        this.configuration = configuration;
+    }
+}
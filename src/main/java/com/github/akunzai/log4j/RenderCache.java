@@ -0,0 +1,54 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The events formatted by a layout during one delivery, keyed by identity, so that an event sent
+ * in several forms, e.g. as the substitution of a batch and then on its own, is formatted only once.
+ * <p>
+ * A cache only lives for one delivery, which keeps it small and never serves the output of a reused event.
+ * It is not thread-safe.
+ */
+final class RenderCache {
+    private final Layout<?> layout;
+    private final Map<LogEvent, String> rendered = new IdentityHashMap<>();
+
+    RenderCache(final Layout<?> layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * @param layout The layout the event is to be formatted with.
+     * @return true if the cache holds the output of the layout.
+     */
+    boolean isFor(final Layout<?> layout) {
+        return this.layout == layout;
+    }
+
+    /**
+     * Format an event unless it was already formatted.
+     *
+     * @param event The event to format.
+     * @return the output of the layout for the event.
+     */
+    String render(final LogEvent event) {
+        String text = rendered.get(event);
+        if (text == null) {
+            text = String.valueOf(layout.toSerializable(event));
+            rendered.put(event, text);
+        }
+        return text;
+    }
+
+    /**
+     * @param event The event.
+     * @return the output of the layout for the event, or null if it was not formatted yet.
+     */
+    String get(final LogEvent event) {
+        return rendered.get(event);
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free multi-producer ring buffer keeping an immutable copy of every captured event.
+ * <p>
+ * Producers claim a sequence number and publish the event, paired with its sequence, into the slot
+ * of that sequence. A producer only replaces an older sequence, so a producer that wrapped around onto
+ * the same slot is never overwritten by a slower one. {@link #removeAll()} claims every sequence
+ * published since the previous call and keeps only the slots whose sequence still matches,
+ * so that events overwritten or still being written concurrently are skipped instead of torn.
+ */
+final class RingEventBuffer implements EventBuffer {
+    private static final LogEvent[] EMPTY = new LogEvent[0];
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    RingEventBuffer(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.entries = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    @Override
+    public void add(final LogEvent event) {
+        if (capacity == 0) {
+            return;
+        }
+        final LogEvent immutable = event.toImmutable();
+        final long sequence = cursor.getAndIncrement();
+        final int index = (int) (sequence % capacity);
+        final Entry entry = new Entry(sequence, immutable);
+        Entry current;
+        do {
+            current = entries.get(index);
+            // a producer that wrapped around may already have published a newer event
+            if (current != null && current.sequence > sequence) {
+                return;
+            }
+        } while (!entries.compareAndSet(index, current, entry));
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(capacity, cursor.get() - removed.get()));
+    }
+
+    @Override
+    public LogEvent[] removeAll() {
+        final long end = cursor.get();
+        long start;
+        do {
+            start = removed.get();
+            if (start >= end) {
+                return EMPTY;
+            }
+        } while (!removed.compareAndSet(start, end));
+        start = Math.max(start, end - capacity);
+        final LogEvent[] result = new LogEvent[(int) (end - start)];
+        int size = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            final int index = (int) (sequence % capacity);
+            final Entry entry = entries.get(index);
+            if (entry == null || entry.sequence != sequence || entry.event == null) {
+                continue;
+            }
+            // release the event, keeping its sequence, unless a producer already reused the slot
+            entries.compareAndSet(index, entry, new Entry(sequence, null));
+            result[size++] = entry.event;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final LogEvent event;
+
+        Entry(final long sequence, final LogEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+}
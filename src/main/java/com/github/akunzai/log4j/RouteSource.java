@@ -0,0 +1,23 @@
+package com.github.akunzai.log4j;
+
+/**
+ * What the recipients of an email are routed by.
+ */
+public enum RouteSource {
+    /**
+     * Every email goes to the configured recipients.
+     */
+    NONE,
+    /**
+     * The value of a {@code ThreadContext} key such as a tenant ID, matched exactly.
+     */
+    CONTEXT,
+    /**
+     * The marker name of the triggering event, or the name of one of its parents.
+     */
+    MARKER,
+    /**
+     * The logger name of the triggering event, matched by its dotted prefixes.
+     */
+    LOGGER
+}
@@ -29,9 +29,9 @@ import org.apache.logging.log4j.status.StatusLogger;
 import org.apache.logging.log4j.util.ServiceLoaderUtil;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ServiceLoader;
-
-import static org.apache.logging.log4j.core.layout.AbstractStringLayout.Serializer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Send an e-mail when a specific logging event occurs, typically on errors or fatal errors.
@@ -58,21 +58,86 @@ public class SendGridAppender extends AbstractAppender {
      */
     private final SendGridManager manager;
 
+    private final Configuration configuration;
+
     private static final int DEFAULT_BUFFER_SIZE = 512;
 
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final long DEFAULT_OVERFLOW_TIMEOUT_MILLIS = 1000;
+
+    private static final int DEFAULT_MAX_EVENTS_PER_MAIL = 100;
+
+    private static final int DEFAULT_MAX_SUBJECT_LENGTH = 0;
+
+    private static final int DEFAULT_DEDUP_CACHE_SIZE = 256;
+
+    private static final int DEFAULT_DEDUP_STACK_FRAMES = 3;
+
+    private static final int DEFAULT_RATE_LIMIT_PER_MINUTE = 60;
+
+    private static final int DEFAULT_MAX_PARTITIONS = 256;
+
+    private static final int DEFAULT_PARTITION_SIZE = 32;
+
+    private static final long DEFAULT_PARTITION_IDLE_MILLIS = 300_000;
+
+    private static final int DEFAULT_GZIP_THRESHOLD = 1024;
+
+    private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private static final long DEFAULT_READ_TIMEOUT_MILLIS = 30_000;
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 1;
+
+    private static final long DEFAULT_RETRY_BASE_MILLIS = 1000;
+
+    private static final long DEFAULT_RETRY_MAX_MILLIS = 30_000;
+
+    private static final int DEFAULT_MAX_PENDING_RETRIES = 16;
+
+    private static final int DEFAULT_CIRCUIT_FAILURE_RATE = 50;
+
+    private static final long DEFAULT_CIRCUIT_SLOW_CALL_MILLIS = 10_000;
+
+    private static final int DEFAULT_CIRCUIT_SLOW_CALL_RATE = 100;
+
+    private static final int DEFAULT_CIRCUIT_WINDOW_SIZE = 10;
+
+    private static final long DEFAULT_CIRCUIT_OPEN_MILLIS = 60_000;
+
+    private static final int DEFAULT_SPOOL_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final long DEFAULT_SPOOL_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1;
+
+    private static final int DEFAULT_MAX_BODY_BYTES = 0;
+
     private SendGridAppender(
             final String name, final Filter filter, final Layout<? extends Serializable> layout,
             final SendGridManager manager,
+            final Configuration configuration,
             final boolean ignoreExceptions,
             final Property[] properties) {
         super(name, filter, layout, ignoreExceptions, properties);
         this.manager = manager;
+        this.configuration = configuration;
     }
 
     SendGridManager getManager() {
         return manager;
     }
 
+    /**
+     * Take a snapshot of the metrics of the manager, shared by the appenders with the same settings.
+     *
+     * @return the current values of the metrics.
+     */
+    public SendGridMetricsMXBean getMetrics() {
+        return manager.getMetrics().snapshot();
+    }
+
     /**
      * The Plugin Builder for SendGridAppender
      *
@@ -92,12 +157,18 @@ public class SendGridAppender extends AbstractAppender {
         @PluginBuilderAttribute
         private String from;
 
+        @PluginBuilderAttribute
+        private String fallbackFrom;
+
         @PluginBuilderAttribute
         private String replyTo;
 
         @PluginBuilderAttribute
         private String subject;
 
+        @PluginBuilderAttribute
+        private int maxSubjectLength = DEFAULT_MAX_SUBJECT_LENGTH;
+
         @PluginBuilderAttribute
         private String host;
 
@@ -110,6 +181,153 @@ public class SendGridAppender extends AbstractAppender {
         @PluginBuilderAttribute
         private int bufferSize = DEFAULT_BUFFER_SIZE;
 
+        @PluginBuilderAttribute
+        private boolean async;
+
+        @PluginBuilderAttribute
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+        @PluginBuilderAttribute
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+        @PluginBuilderAttribute
+        private long overflowTimeoutMillis = DEFAULT_OVERFLOW_TIMEOUT_MILLIS;
+
+        @PluginBuilderAttribute
+        private long coalesceMillis;
+
+        @PluginBuilderAttribute
+        private int maxEventsPerMail = DEFAULT_MAX_EVENTS_PER_MAIL;
+
+        @PluginBuilderAttribute
+        private long dedupTtlMillis;
+
+        @PluginBuilderAttribute
+        private int dedupCacheSize = DEFAULT_DEDUP_CACHE_SIZE;
+
+        @PluginBuilderAttribute
+        private int dedupStackFrames = DEFAULT_DEDUP_STACK_FRAMES;
+
+        @PluginBuilderAttribute
+        private int rateLimitBurst;
+
+        @PluginBuilderAttribute
+        private int rateLimitPerMinute = DEFAULT_RATE_LIMIT_PER_MINUTE;
+
+        @PluginBuilderAttribute
+        private boolean compactCapture;
+
+        @PluginBuilderAttribute
+        private BufferPartition bufferPartition = BufferPartition.NONE;
+
+        @PluginBuilderAttribute
+        private String partitionKey;
+
+        @PluginBuilderAttribute
+        private int maxPartitions = DEFAULT_MAX_PARTITIONS;
+
+        @PluginBuilderAttribute
+        private long partitionIdleMillis = DEFAULT_PARTITION_IDLE_MILLIS;
+
+        @PluginBuilderAttribute
+        private int partitionSize = DEFAULT_PARTITION_SIZE;
+
+        @PluginBuilderAttribute
+        private boolean gzip;
+
+        @PluginBuilderAttribute
+        private int gzipThreshold = DEFAULT_GZIP_THRESHOLD;
+
+        @PluginBuilderAttribute
+        private TransportType transport = TransportType.SENDGRID;
+
+        @PluginBuilderAttribute
+        private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+        @PluginBuilderAttribute
+        private long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+        @PluginBuilderAttribute
+        private boolean http2 = true;
+
+        @PluginBuilderAttribute
+        private boolean virtualThreads;
+
+        @PluginBuilderAttribute
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+        @PluginBuilderAttribute
+        private long retryBaseMillis = DEFAULT_RETRY_BASE_MILLIS;
+
+        @PluginBuilderAttribute
+        private long retryMaxMillis = DEFAULT_RETRY_MAX_MILLIS;
+
+        @PluginBuilderAttribute
+        private int maxPendingRetries = DEFAULT_MAX_PENDING_RETRIES;
+
+        @PluginBuilderAttribute
+        private boolean circuitBreaker;
+
+        @PluginBuilderAttribute
+        private int circuitFailureRate = DEFAULT_CIRCUIT_FAILURE_RATE;
+
+        @PluginBuilderAttribute
+        private long circuitSlowCallMillis = DEFAULT_CIRCUIT_SLOW_CALL_MILLIS;
+
+        @PluginBuilderAttribute
+        private int circuitSlowCallRate = DEFAULT_CIRCUIT_SLOW_CALL_RATE;
+
+        @PluginBuilderAttribute
+        private int circuitWindowSize = DEFAULT_CIRCUIT_WINDOW_SIZE;
+
+        @PluginBuilderAttribute
+        private long circuitOpenMillis = DEFAULT_CIRCUIT_OPEN_MILLIS;
+
+        @PluginBuilderAttribute
+        private String spoolDirectory;
+
+        @PluginBuilderAttribute
+        private int spoolSegmentSize = DEFAULT_SPOOL_SEGMENT_SIZE;
+
+        @PluginBuilderAttribute
+        private long spoolMaxBytes = DEFAULT_SPOOL_MAX_BYTES;
+
+        @PluginBuilderAttribute
+        private SpoolSync spoolSync = SpoolSync.SEGMENT;
+
+        @PluginBuilderAttribute
+        private String failoverHost;
+
+        @PluginBuilderAttribute(sensitive = true)
+        private String failoverApiKey;
+
+        @PluginBuilderAttribute
+        private String failoverAppender;
+
+        @PluginBuilderAttribute
+        private RouteSource routeBy = RouteSource.NONE;
+
+        @PluginBuilderAttribute
+        private String routeKey;
+
+        @PluginElement("MailRoutes")
+        private MailRoute[] routes;
+
+        @PluginBuilderAttribute
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+        @PluginBuilderAttribute
+        private int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+        @PluginBuilderAttribute
+        private boolean jmx;
+
+        @PluginBuilderAttribute
+        private String textPattern;
+
+        @PluginBuilderAttribute
+        private boolean attachContext;
+
         /**
          * The Plugin Builder for SendGridAppender
          */
@@ -160,6 +378,18 @@ public class SendGridAppender extends AbstractAppender {
             return this;
         }
 
+        /**
+         * Set the email address of the sender when the sender is unset
+         *
+         * @param fallbackFrom Email address of the sender used when {@code from} is empty or unresolved,
+         *                     instead of looking up the local address of the current user.
+         * @return Builder
+         */
+        public Builder setFallbackFrom(final String fallbackFrom) {
+            this.fallbackFrom = fallbackFrom;
+            return this;
+        }
+
         /**
          * Set the Reply-To email addresses
          *
@@ -182,6 +412,18 @@ public class SendGridAppender extends AbstractAppender {
             return this;
         }
 
+        /**
+         * Set the maximum length of the email subject
+         *
+         * @param maxSubjectLength Number of characters a subject is truncated to, ending with an ellipsis, {@code 0} for no limit.
+         *                         Defaults to {@value #DEFAULT_MAX_SUBJECT_LENGTH}.
+         * @return Builder
+         */
+        public Builder setMaxSubjectLength(final int maxSubjectLength) {
+            this.maxSubjectLength = maxSubjectLength;
+            return this;
+        }
+
         /**
          * Set the SendGrid host
          *
@@ -226,6 +468,566 @@ public class SendGridAppender extends AbstractAppender {
             return this;
         }
 
+        /**
+         * Set the asynchronous delivery mode
+         *
+         * @param async Build and send emails on a dedicated sender thread instead of the logging thread?
+         * @return Builder
+         */
+        public Builder setAsync(final boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        /**
+         * Set the capacity of the asynchronous delivery queue
+         *
+         * @param queueCapacity Number of emails waiting to be sent in asynchronous mode. Defaults to {@value #DEFAULT_QUEUE_CAPACITY}.
+         * @return Builder
+         */
+        public Builder setQueueCapacity(final int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Set the overflow policy of the asynchronous delivery queue
+         *
+         * @param overflowPolicy What to do when the queue is full. Defaults to {@link OverflowPolicy#DROP_NEWEST}.
+         * @return Builder
+         */
+        public Builder setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Set how long the logging thread may block on a full queue
+         *
+         * @param overflowTimeoutMillis Milliseconds to wait with {@link OverflowPolicy#BLOCK}. Defaults to {@value #DEFAULT_OVERFLOW_TIMEOUT_MILLIS}.
+         * @return Builder
+         */
+        public Builder setOverflowTimeoutMillis(final long overflowTimeoutMillis) {
+            this.overflowTimeoutMillis = overflowTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the coalescing window
+         *
+         * @param coalesceMillis Milliseconds to wait for more triggering events before sending a digest email.
+         *                       Events are sent on a dedicated sender thread when enabled. Defaults to 0 (disabled).
+         * @return Builder
+         */
+        public Builder setCoalesceMillis(final long coalesceMillis) {
+            this.coalesceMillis = coalesceMillis;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of triggering events in a digest email
+         *
+         * @param maxEventsPerMail Number of triggering events merged into one email within the coalescing window.
+         *                         Defaults to {@value #DEFAULT_MAX_EVENTS_PER_MAIL}.
+         * @return Builder
+         */
+        public Builder setMaxEventsPerMail(final int maxEventsPerMail) {
+            this.maxEventsPerMail = maxEventsPerMail;
+            return this;
+        }
+
+        /**
+         * Set how long repeats of a mailed error are suppressed
+         *
+         * @param dedupTtlMillis Milliseconds during which an error with the same logger, level, message template
+         *                       and stack trace is only counted. Defaults to 0 (disabled).
+         * @return Builder
+         */
+        public Builder setDedupTtlMillis(final long dedupTtlMillis) {
+            this.dedupTtlMillis = dedupTtlMillis;
+            return this;
+        }
+
+        /**
+         * Set the number of error fingerprints remembered for deduplication
+         *
+         * @param dedupCacheSize Number of recently mailed fingerprints to keep. Defaults to {@value #DEFAULT_DEDUP_CACHE_SIZE}.
+         * @return Builder
+         */
+        public Builder setDedupCacheSize(final int dedupCacheSize) {
+            this.dedupCacheSize = dedupCacheSize;
+            return this;
+        }
+
+        /**
+         * Set the number of stack frames in an error fingerprint
+         *
+         * @param dedupStackFrames Number of top stack frames of the exception to compare, up to 16. Defaults to {@value #DEFAULT_DEDUP_STACK_FRAMES}.
+         * @return Builder
+         */
+        public Builder setDedupStackFrames(final int dedupStackFrames) {
+            this.dedupStackFrames = dedupStackFrames;
+            return this;
+        }
+
+        /**
+         * Set the maximum burst of emails
+         *
+         * @param rateLimitBurst Number of emails that may be sent at once before the rate limit applies.
+         *                       The limit is shared by all appenders using the same manager. Defaults to 0 (disabled).
+         * @return Builder
+         */
+        public Builder setRateLimitBurst(final int rateLimitBurst) {
+            this.rateLimitBurst = rateLimitBurst;
+            return this;
+        }
+
+        /**
+         * Set the sustained rate of emails
+         *
+         * @param rateLimitPerMinute Number of emails allowed per minute once the burst is used up.
+         *                           Defaults to {@value #DEFAULT_RATE_LIMIT_PER_MINUTE}.
+         * @return Builder
+         */
+        public Builder setRateLimitPerMinute(final int rateLimitPerMinute) {
+            this.rateLimitPerMinute = rateLimitPerMinute;
+            return this;
+        }
+
+        /**
+         * Set the compact capture mode of the buffer
+         *
+         * @param compactCapture Capture buffered events into reusable slots holding only the timestamp, level, marker,
+         *                       logger and thread names, formatted message and exception, instead of copying every event?
+         *                       The context map and location information of buffered events are then not available to the layout.
+         * @return Builder
+         */
+        public Builder setCompactCapture(final boolean compactCapture) {
+            this.compactCapture = compactCapture;
+            return this;
+        }
+
+        /**
+         * Set how the buffer is partitioned
+         *
+         * @param bufferPartition Keep a separate buffer per thread or per {@code ThreadContext} value, so that an email
+         *                        only contains the events related to the triggering event. The buffer size is then
+         *                        the budget shared by the partitions. Defaults to {@link BufferPartition#NONE}.
+         * @return Builder
+         */
+        public Builder setBufferPartition(final BufferPartition bufferPartition) {
+            this.bufferPartition = bufferPartition;
+            return this;
+        }
+
+        /**
+         * Set the {@code ThreadContext} key of the buffer partitions
+         *
+         * @param partitionKey The {@code ThreadContext} key, e.g. a request ID, used with {@link BufferPartition#CONTEXT}.
+         * @return Builder
+         */
+        public Builder setPartitionKey(final String partitionKey) {
+            this.partitionKey = partitionKey;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of buffer partitions
+         *
+         * @param maxPartitions Number of partitions kept at once, the least recently used ones being evicted.
+         *                      The buffer size budget may keep fewer. Defaults to {@value #DEFAULT_MAX_PARTITIONS}.
+         * @return Builder
+         */
+        public Builder setMaxPartitions(final int maxPartitions) {
+            this.maxPartitions = maxPartitions;
+            return this;
+        }
+
+        /**
+         * Set how long a buffer partition may stay idle
+         *
+         * @param partitionIdleMillis Milliseconds after which a partition without new events is evicted.
+         *                            Defaults to {@value #DEFAULT_PARTITION_IDLE_MILLIS}.
+         * @return Builder
+         */
+        public Builder setPartitionIdleMillis(final long partitionIdleMillis) {
+            this.partitionIdleMillis = partitionIdleMillis;
+            return this;
+        }
+
+        /**
+         * Set the size of each buffer partition
+         *
+         * @param partitionSize Number of events kept per partition, at most {@code bufferSize / partitionSize}
+         *                      partitions being kept at once. Defaults to {@value #DEFAULT_PARTITION_SIZE}.
+         * @return Builder
+         */
+        public Builder setPartitionSize(final int partitionSize) {
+            this.partitionSize = partitionSize;
+            return this;
+        }
+
+        /**
+         * Set whether to compress the request body
+         *
+         * @param gzip Send request bodies with {@code Content-Encoding: gzip}?
+         * @return Builder
+         */
+        public Builder setGzip(final boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * Set the size from which the request body is compressed
+         *
+         * @param gzipThreshold Minimum size in bytes of the request body to compress. Defaults to {@value #DEFAULT_GZIP_THRESHOLD}.
+         * @return Builder
+         */
+        public Builder setGzipThreshold(final int gzipThreshold) {
+            this.gzipThreshold = gzipThreshold;
+            return this;
+        }
+
+        /**
+         * Set the HTTP client used to call the SendGrid API
+         *
+         * @param transport The HTTP client. Defaults to {@link TransportType#SENDGRID}.
+         * @return Builder
+         */
+        public Builder setTransport(final TransportType transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Set the connect timeout of the {@link TransportType#JDK} HTTP client
+         *
+         * @param connectTimeoutMillis Milliseconds to wait for a connection. Defaults to {@value #DEFAULT_CONNECT_TIMEOUT_MILLIS}.
+         * @return Builder
+         */
+        public Builder setConnectTimeoutMillis(final long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the read timeout of the {@link TransportType#JDK} HTTP client
+         *
+         * @param readTimeoutMillis Milliseconds to wait for a response. Defaults to {@value #DEFAULT_READ_TIMEOUT_MILLIS}.
+         * @return Builder
+         */
+        public Builder setReadTimeoutMillis(final long readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set whether the {@link TransportType#JDK} HTTP client negotiates HTTP/2
+         *
+         * @param http2 Prefer HTTP/2, falling back to HTTP/1.1? Defaults to true.
+         * @return Builder
+         */
+        public Builder setHttp2(final boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * Set whether the {@link TransportType#JDK} HTTP client runs on virtual threads
+         *
+         * @param virtualThreads Use a virtual-thread executor when running on Java 21 or later?
+         * @return Builder
+         */
+        public Builder setVirtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Set how many times a request is attempted
+         *
+         * @param maxAttempts Number of attempts for network errors, 429 and 5xx responses, {@code 1} disables retries.
+         *                    Defaults to {@value #DEFAULT_MAX_ATTEMPTS}.
+         * @return Builder
+         */
+        public Builder setMaxAttempts(final int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Set the backoff before the first retry
+         *
+         * @param retryBaseMillis Milliseconds before the first retry, doubled for each further retry.
+         *                        Defaults to {@value #DEFAULT_RETRY_BASE_MILLIS}.
+         * @return Builder
+         */
+        public Builder setRetryBaseMillis(final long retryBaseMillis) {
+            this.retryBaseMillis = retryBaseMillis;
+            return this;
+        }
+
+        /**
+         * Set the maximum backoff between retries
+         *
+         * @param retryMaxMillis Maximum milliseconds between retries, unless the server asks for longer with Retry-After.
+         *                       Defaults to {@value #DEFAULT_RETRY_MAX_MILLIS}.
+         * @return Builder
+         */
+        public Builder setRetryMaxMillis(final long retryMaxMillis) {
+            this.retryMaxMillis = retryMaxMillis;
+            return this;
+        }
+
+        /**
+         * Set how many retries may be pending at once
+         *
+         * @param maxPendingRetries Number of requests waiting to be retried, further failures are not retried.
+         *                          Defaults to {@value #DEFAULT_MAX_PENDING_RETRIES}.
+         * @return Builder
+         */
+        public Builder setMaxPendingRetries(final int maxPendingRetries) {
+            this.maxPendingRetries = maxPendingRetries;
+            return this;
+        }
+
+        /**
+         * Set whether to stop calling SendGrid while it keeps failing
+         *
+         * @param circuitBreaker Hold alerts back while the circuit breaker is open?
+         * @return Builder
+         */
+        public Builder setCircuitBreaker(final boolean circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Set the failure rate opening the circuit breaker
+         *
+         * @param circuitFailureRate Percentage of failed calls in the window, {@code 0} disables it.
+         *                           Defaults to {@value #DEFAULT_CIRCUIT_FAILURE_RATE}.
+         * @return Builder
+         */
+        public Builder setCircuitFailureRate(final int circuitFailureRate) {
+            this.circuitFailureRate = circuitFailureRate;
+            return this;
+        }
+
+        /**
+         * Set the duration from which a call is slow
+         *
+         * @param circuitSlowCallMillis Milliseconds from which a call counts as slow. Defaults to {@value #DEFAULT_CIRCUIT_SLOW_CALL_MILLIS}.
+         * @return Builder
+         */
+        public Builder setCircuitSlowCallMillis(final long circuitSlowCallMillis) {
+            this.circuitSlowCallMillis = circuitSlowCallMillis;
+            return this;
+        }
+
+        /**
+         * Set the slow-call rate opening the circuit breaker
+         *
+         * @param circuitSlowCallRate Percentage of slow calls in the window, {@code 0} disables it.
+         *                            Defaults to {@value #DEFAULT_CIRCUIT_SLOW_CALL_RATE}.
+         * @return Builder
+         */
+        public Builder setCircuitSlowCallRate(final int circuitSlowCallRate) {
+            this.circuitSlowCallRate = circuitSlowCallRate;
+            return this;
+        }
+
+        /**
+         * Set the number of calls the circuit breaker rates
+         *
+         * @param circuitWindowSize Number of most recent calls in the sliding window. Defaults to {@value #DEFAULT_CIRCUIT_WINDOW_SIZE}.
+         * @return Builder
+         */
+        public Builder setCircuitWindowSize(final int circuitWindowSize) {
+            this.circuitWindowSize = circuitWindowSize;
+            return this;
+        }
+
+        /**
+         * Set how long the circuit breaker stays open
+         *
+         * @param circuitOpenMillis Milliseconds before a trial call is let through. Defaults to {@value #DEFAULT_CIRCUIT_OPEN_MILLIS}.
+         * @return Builder
+         */
+        public Builder setCircuitOpenMillis(final long circuitOpenMillis) {
+            this.circuitOpenMillis = circuitOpenMillis;
+            return this;
+        }
+
+        /**
+         * Set the directory of the spool
+         *
+         * @param spoolDirectory The directory where undeliverable requests are kept until SendGrid is reachable again. By default, nothing is spooled.
+         * @return Builder
+         */
+        public Builder setSpoolDirectory(final String spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return this;
+        }
+
+        /**
+         * Set the size of the spool segment files
+         *
+         * @param spoolSegmentSize Bytes of each memory-mapped segment file. Defaults to {@value #DEFAULT_SPOOL_SEGMENT_SIZE}.
+         * @return Builder
+         */
+        public Builder setSpoolSegmentSize(final int spoolSegmentSize) {
+            this.spoolSegmentSize = spoolSegmentSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the spool
+         *
+         * @param spoolMaxBytes Bytes of segment files kept, the oldest segment being dropped beyond. Defaults to {@value #DEFAULT_SPOOL_MAX_BYTES}.
+         * @return Builder
+         */
+        public Builder setSpoolMaxBytes(final long spoolMaxBytes) {
+            this.spoolMaxBytes = spoolMaxBytes;
+            return this;
+        }
+
+        /**
+         * Set when the spool is forced to disk
+         *
+         * @param spoolSync The sync policy. Defaults to {@link SpoolSync#SEGMENT}.
+         * @return Builder
+         */
+        public Builder setSpoolSync(final SpoolSync spoolSync) {
+            this.spoolSync = spoolSync;
+            return this;
+        }
+
+        /**
+         * Set the SendGrid host tried when the primary host fails
+         *
+         * @param failoverHost The failover SendGrid host, e.g. an EU regional endpoint. Defaults to the primary host when only {@code failoverApiKey} is set.
+         * @return Builder
+         */
+        public Builder setFailoverHost(final String failoverHost) {
+            this.failoverHost = failoverHost;
+            return this;
+        }
+
+        /**
+         * Set the SendGrid API Key of the failover host
+         *
+         * @param failoverApiKey The API Key, e.g. of a second account. Defaults to the primary API Key when only {@code failoverHost} is set.
+         * @return Builder
+         */
+        public Builder setFailoverApiKey(final String failoverApiKey) {
+            this.failoverApiKey = failoverApiKey;
+            return this;
+        }
+
+        /**
+         * Set the appender the events are forwarded to when every SendGrid host fails
+         *
+         * @param failoverAppender The name of another appender of the configuration, e.g. a file or SMTP appender.
+         * @return Builder
+         */
+        public Builder setFailoverAppender(final String failoverAppender) {
+            this.failoverAppender = failoverAppender;
+            return this;
+        }
+
+        /**
+         * Set what the recipients are routed by
+         *
+         * @param routeBy What the {@link MailRoute} rules match. Defaults to {@link RouteSource#NONE}.
+         * @return Builder
+         */
+        public Builder setRouteBy(final RouteSource routeBy) {
+            this.routeBy = routeBy;
+            return this;
+        }
+
+        /**
+         * Set the {@code ThreadContext} key the recipients are routed by
+         *
+         * @param routeKey The {@code ThreadContext} key, e.g. a tenant ID, used with {@link RouteSource#CONTEXT}.
+         * @return Builder
+         */
+        public Builder setRouteKey(final String routeKey) {
+            this.routeKey = routeKey;
+            return this;
+        }
+
+        /**
+         * Set the routing rules
+         *
+         * @param routes The recipients per matched value. Events matching no rule are mailed to the configured recipients.
+         * @return Builder
+         */
+        public Builder setRoutes(final MailRoute... routes) {
+            this.routes = routes == null ? null : routes.clone();
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued emails sent in a single request
+         *
+         * @param maxBatchSize Emails already queued are sent as separate personalizations of one request, at most 1000. Only applies to {@code async} delivery without coalescing. Defaults to {@value #DEFAULT_MAX_BATCH_SIZE}.
+         * @return Builder
+         */
+        public Builder setMaxBatchSize(final int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of a request body
+         *
+         * @param maxBodyBytes Number of bytes the events of an email are kept under, the newest and the triggering ones first,
+         *                     the triggering event being always sent. {@code 0} for no limit. Defaults to {@value #DEFAULT_MAX_BODY_BYTES}.
+         * @return Builder
+         */
+        public Builder setMaxBodyBytes(final int maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+            return this;
+        }
+
+        /**
+         * Set whether the metrics of the manager are registered as a JMX MBean
+         *
+         * @param jmx Register the {@link SendGridMetricsMXBean} of the manager in the platform MBean server?
+         * @return Builder
+         */
+        public Builder setJmx(final boolean jmx) {
+            this.jmx = jmx;
+            return this;
+        }
+
+        /**
+         * Set the pattern of the plain text alternative of HTML emails
+         *
+         * @param textPattern The {@code PatternLayout} pattern formatting the events of the {@code text/plain} part,
+         *                    sent along the {@code text/html} part of the {@link HtmlLayout}. Without it, only the layout output is sent.
+         * @return Builder
+         */
+        public Builder setTextPattern(final String textPattern) {
+            this.textPattern = textPattern;
+            return this;
+        }
+
+        /**
+         * Set whether the buffered events are attached instead of inlined
+         *
+         * @param attachContext Send only the triggering events in the email body, and all the buffered events
+         *                      as a gzip-compressed attachment?
+         * @return Builder
+         */
+        public Builder setAttachContext(final boolean attachContext) {
+            this.attachContext = attachContext;
+            return this;
+        }
+
         /**
          * Set the email body layout
          *
@@ -256,22 +1058,89 @@ public class SendGridAppender extends AbstractAppender {
             if (getFilter() == null) {
                 setFilter(ThresholdFilter.createFilter(null, null, null));
             }
-            final Serializer subjectSerializer = PatternLayout.newSerializerBuilder()
-                    .setConfiguration(getConfiguration())
-                    .setPattern(subject)
-                    .build();
+            if (routes != null) {
+                for (final MailRoute route : routes) {
+                    if (route == null || route.getTo() == null || route.getTo().trim().isEmpty()) {
+                        LOGGER.error("SendGridAppender {} has a routing rule without recipients: {}", getName(), route);
+                        return null;
+                    }
+                }
+            }
+            final MailSubject mailSubject = MailSubject.create(getConfiguration(), subject, maxSubjectLength);
+            Layout<String> textLayout = null;
+            if (textPattern != null && !textPattern.isEmpty()) {
+                if (getLayout() instanceof HtmlLayout) {
+                    textLayout = PatternLayout.newBuilder()
+                            .withPattern(textPattern)
+                            .withConfiguration(getConfiguration())
+                            .withCharset(StandardCharsets.UTF_8)
+                            .build();
+                } else {
+                    LOGGER.warn("SendGridAppender {} ignores the textPattern of a layout other than HtmlLayout", getName());
+                }
+            }
             final FactoryData data = new FactoryData(
                     to,
                     cc,
                     bcc,
                     from,
+                    fallbackFrom,
                     replyTo,
                     subject,
-                    subjectSerializer,
+                    mailSubject,
                     host,
                     apiKey,
                     sandboxMode,
-                    bufferSize
+                    bufferSize,
+                    async,
+                    queueCapacity,
+                    overflowPolicy,
+                    overflowTimeoutMillis,
+                    coalesceMillis,
+                    maxEventsPerMail,
+                    dedupTtlMillis,
+                    dedupCacheSize,
+                    dedupStackFrames,
+                    rateLimitBurst,
+                    rateLimitPerMinute,
+                    compactCapture,
+                    bufferPartition,
+                    partitionKey,
+                    maxPartitions,
+                    partitionIdleMillis,
+                    gzip,
+                    gzipThreshold,
+                    transport,
+                    connectTimeoutMillis,
+                    readTimeoutMillis,
+                    http2,
+                    virtualThreads,
+                    maxAttempts,
+                    retryBaseMillis,
+                    retryMaxMillis,
+                    maxPendingRetries,
+                    circuitBreaker,
+                    circuitFailureRate,
+                    circuitSlowCallMillis,
+                    circuitSlowCallRate,
+                    circuitWindowSize,
+                    circuitOpenMillis,
+                    spoolDirectory,
+                    spoolSegmentSize,
+                    spoolMaxBytes,
+                    spoolSync,
+                    failoverHost,
+                    failoverApiKey,
+                    failoverAppender,
+                    routeBy,
+                    routeKey,
+                    routes,
+                    maxBatchSize,
+                    maxBodyBytes,
+                    jmx,
+                    textLayout,
+                    attachContext,
+                    partitionSize
             );
             final ManagerFactory<SendGridManager, FactoryData> factory = ServiceLoaderUtil.safeStream(
                             SendGridManagerFactory.class,
@@ -289,6 +1158,7 @@ public class SendGridAppender extends AbstractAppender {
                     getFilter(),
                     getLayout(),
                     manager,
+                    getConfiguration(),
                     isIgnoreExceptions(),
                     getPropertyArray());
         }
@@ -367,7 +1237,7 @@ public class SendGridAppender extends AbstractAppender {
     }
 
     /**
-     * Capture all events in CyclicBuffer.
+     * Capture all events in the buffer.
      *
      * @param event The Log event.
      * @return true if the event should be filtered.
@@ -390,6 +1260,22 @@ public class SendGridAppender extends AbstractAppender {
      */
     @Override
     public void append(final LogEvent event) {
-        manager.sendEvents(getLayout(), event);
+        manager.sendEvents(getLayout(), event, configuration);
+    }
+
+    /**
+     * Stop the appender and release the manager, waiting for pending emails to be sent.
+     *
+     * @param timeout  the maximum time to wait.
+     * @param timeUnit the unit of the timeout.
+     * @return true if the appender and its manager stopped within the timeout.
+     */
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        stopped &= manager.stop(timeout, timeUnit);
+        setStopped();
+        return stopped;
     }
 }
@@ -0,0 +1,44 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.Method;
+import com.sendgrid.Request;
+import com.sendgrid.SendGrid;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends requests with the HTTP client of the SendGrid library, which only accepts uncompressed String bodies.
+ */
+final class SendGridClientTransport implements MailTransport {
+    // the client reports error responses only through the message of an IOException
+    private static final Pattern STATUS_CODE = Pattern.compile("status Code (\\d{3})");
+
+    private final SendGrid sendGrid;
+
+    SendGridClientTransport(final SendGrid sendGrid) {
+        this.sendGrid = sendGrid;
+    }
+
+    @Override
+    public void post(final String endpoint, final byte[] body, final boolean gzip) throws IOException {
+        if (gzip) {
+            throw new IOException("The SendGrid client does not support compressed request bodies");
+        }
+        final Request request = new Request();
+        request.setMethod(Method.POST);
+        request.setEndpoint(endpoint);
+        request.setBody(new String(body, StandardCharsets.UTF_8));
+        try {
+            sendGrid.api(request);
+        } catch (final IOException e) {
+            final Matcher matcher = e.getMessage() == null ? null : STATUS_CODE.matcher(e.getMessage());
+            if (matcher != null && matcher.find()) {
+                throw new MailDeliveryException(e.getMessage(), Integer.parseInt(matcher.group(1)), -1, e);
+            }
+            throw e;
+        }
+    }
+}
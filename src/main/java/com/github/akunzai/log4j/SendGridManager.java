@@ -1,113 +1,825 @@
 package com.github.akunzai.log4j;
 
-import com.sendgrid.Method;
-import com.sendgrid.Request;
 import com.sendgrid.SendGrid;
 import com.sendgrid.helpers.mail.Mail;
 import com.sendgrid.helpers.mail.objects.Content;
-import com.sendgrid.helpers.mail.objects.MailSettings;
-import com.sendgrid.helpers.mail.objects.Setting;
-import jakarta.mail.Message;
+import com.sendgrid.helpers.mail.objects.Personalization;
 import jakarta.mail.internet.AddressException;
 import org.apache.logging.log4j.LoggingException;
+import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.StringLayout;
 import org.apache.logging.log4j.core.appender.AbstractManager;
 import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
 import org.apache.logging.log4j.core.layout.HtmlLayout;
-import org.apache.logging.log4j.core.util.CyclicBuffer;
+import org.apache.logging.log4j.message.SimpleMessage;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 import java.util.function.Function;
-
-import static org.apache.logging.log4j.core.layout.AbstractStringLayout.Serializer;
+import java.util.function.IntFunction;
 
 /**
  * Manager for sending SendGrid events.
  */
 class SendGridManager extends AbstractManager {
     static final SendGridManagerFactory FACTORY = new SendGridManagerFactory();
-    private static final MailSettings SANDBOX_MAIL_SETTINGS;
 
-    static {
-        final Setting setting = new Setting();
-        setting.setEnable(true);
-        SANDBOX_MAIL_SETTINGS = new MailSettings();
-        SANDBOX_MAIL_SETTINGS.setSandboxMode(setting);
-    }
+    /**
+     * The most personalizations SendGrid accepts in a request.
+     */
+    static final int MAX_PERSONALIZATIONS = 1000;
+
+    /**
+     * The tag of the content replaced by the substitution of each personalization in a batch.
+     */
+    private static final String CONTENT_KEY = "-log4j-alert-";
+
+    /**
+     * The content types of a mail with a plain text alternative, in the order SendGrid requires.
+     */
+    private static final String[] MULTIPART_TYPES = {"text/plain", "text/html"};
+
+    /**
+     * The most bytes SendGrid accepts for the substitutions of a personalization.
+     */
+    private static final int MAX_SUBSTITUTION_BYTES = 10_000 - CONTENT_KEY.length();
 
     final SendGrid sendGrid;
 
-    private final CyclicBuffer<LogEvent> buffer;
+    private final EventBuffer buffer;
 
     private final FactoryData data;
 
-    SendGridManager(final String name, final SendGrid sendGrid, final FactoryData data) {
+    private final AsyncMailSender sender;
+
+    private final MailTemplate template;
+
+    private final MailRouter router;
+
+    private final FingerprintCache fingerprints;
+
+    private final TokenBucket rateLimiter;
+
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private final AtomicReference<MailBodyWriter> idleWriter = new AtomicReference<>();
+
+    private final GzipEncoder gzip;
+
+    private final MailTarget[] targets;
+
+    private final boolean failover;
+
+    private final MailRetrier retrier;
+
+    private final AtomicLong circuitSuppressed = new AtomicLong();
+    // the summary of the alerts held back by the circuit breaker, waiting for the send that closed it to be over
+    private final AtomicReference<PendingMail> circuitSummary = new AtomicReference<>();
+
+    private final LongAdder undelivered = new LongAdder();
+
+    private final MailSpool spool;
+
+    private final SendGridMetrics metrics;
+
+    private final ObjectName metricsName;
+
+    SendGridManager(final String name,
+                    final SendGrid sendGrid,
+                    final MailTransport transport,
+                    final SendGrid failoverSendGrid,
+                    final MailTransport failoverTransport,
+                    final FactoryData data) {
         super(null, name);
         this.sendGrid = sendGrid;
         this.data = data;
-        this.buffer = new CyclicBuffer<>(LogEvent.class, data.bufferSize);
+        this.template = createTemplate(data);
+        this.router = createRouter(data);
+        final IntFunction<EventBuffer> bufferFactory = data.compactCapture ? CompactEventBuffer::new : RingEventBuffer::new;
+        if (data.bufferPartition == null || data.bufferPartition == BufferPartition.NONE) {
+            this.buffer = bufferFactory.apply(data.bufferSize);
+        } else {
+            this.buffer = new PartitionedEventBuffer(data.bufferPartition, data.partitionKey,
+                    data.maxPartitions, data.partitionIdleMillis, data.bufferSize, data.partitionSize, bufferFactory);
+        }
+        if (data.async || data.coalesceMillis > 0) {
+            this.sender = new AsyncMailSender(name, data.queueCapacity, data.overflowPolicy,
+                    data.overflowTimeoutMillis, data.coalesceMillis, data.maxEventsPerMail, data.maxBatchSize, this::deliver);
+            this.sender.start();
+        } else {
+            this.sender = null;
+        }
+        this.fingerprints = data.dedupTtlMillis > 0 ? new FingerprintCache(data.dedupCacheSize, data.dedupTtlMillis, data.dedupStackFrames) : null;
+        this.rateLimiter = data.rateLimitBurst > 0
+                ? new TokenBucket(data.rateLimitBurst, data.rateLimitPerMinute, System.nanoTime()) : null;
+        this.gzip = data.gzip ? new GzipEncoder() : null;
+        this.failover = failoverTransport != null || (data.failoverAppender != null && !data.failoverAppender.isEmpty());
+        // every endpoint of a failover chain keeps its own health, so that a dead one is skipped
+        final boolean circuitBreaker = data.circuitBreaker || failover;
+        final MailTarget primary = createTarget(name, sendGrid, transport, data, circuitBreaker);
+        this.targets = failoverTransport == null ? new MailTarget[]{primary} : new MailTarget[]{
+                primary, createTarget(name + " failover", failoverSendGrid, failoverTransport, data, circuitBreaker)};
+        this.retrier = data.maxAttempts > 1 ? new MailRetrier(name, data.maxAttempts, data.retryBaseMillis,
+                data.retryMaxMillis, data.maxPendingRetries) : null;
+        this.spool = createSpool(data);
+        if (spool != null && spool.hasPending()) {
+            // requests left over by a previous run
+            spool.replayAsync(this::replay);
+        }
+        final AsyncMailSender queue = this.sender;
+        this.metrics = new SendGridMetrics(buffer::size, queue == null ? () -> 0 : queue::size,
+                queue == null ? undelivered::sum : () -> queue.getDropped() + undelivered.sum());
+        this.metricsName = data.jmx ? registerMetrics(name, data) : null;
     }
 
     public void add(LogEvent event) {
-        buffer.add(event.toImmutable());
+        buffer.add(event);
+        metrics.eventsBuffered.increment();
+    }
+
+    /**
+     * @return the live metrics of the manager.
+     */
+    SendGridMetrics getMetrics() {
+        return metrics;
     }
 
     /**
      * Send the contents of the cyclic buffer as an e-mail message.
+     * <p>
+     * In asynchronous or coalescing mode, the buffer and the triggering event are only snapshotted here
+     * and the message is built and sent by the sender thread.
+     * <p>
+     * When deduplication is enabled, repeats of a recently mailed error are only counted,
+     * and the count is reported in the next email for the same error.
+     * <p>
+     * When rate limiting is enabled, a triggering event exceeding the budget is kept in the buffer
+     * as context for the next allowed email, which also reports how many emails were held back.
+     * <p>
+     * When routing rules are set, the recipients are resolved from the triggering event.
+     * <p>
+     * With a failover chain, the health of each endpoint is only checked when the message is sent,
+     * so that an open circuit fails over instead of holding the alert back.
      *
      * @param layout      The layout for formatting the events.
      * @param appendEvent The event that triggered to send.
      */
     public void sendEvents(final Layout<?> layout, final LogEvent appendEvent) {
+        sendEvents(layout, appendEvent, null);
+    }
+
+    /**
+     * Send the contents of the cyclic buffer as an e-mail message.
+     *
+     * @param layout        The layout for formatting the events.
+     * @param appendEvent   The event that triggered to send.
+     * @param configuration The configuration of the calling appender, resolving the failover appender, may be null.
+     * @see #sendEvents(Layout, LogEvent)
+     */
+    public void sendEvents(final Layout<?> layout, final LogEvent appendEvent, final Configuration configuration) {
+        metrics.alerts.increment();
+        LogEvent dedupNotice = null;
+        if (fingerprints != null) {
+            final FingerprintCache.Entry previous = fingerprints.admit(
+                    fingerprints.fingerprint(appendEvent), appendEvent.getTimeMillis());
+            if (previous == FingerprintCache.SUPPRESSED) {
+                metrics.alertsDeduplicated.increment();
+                return;
+            }
+            if (previous != null && previous.suppressed.get() > 0) {
+                dedupNotice = createNotice(appendEvent, "This error was seen " + previous.suppressed.get()
+                        + " more times since " + Instant.ofEpochMilli(previous.mailedMillis));
+            }
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire(System.nanoTime())) {
+            rateLimited.incrementAndGet();
+            metrics.alertsRateLimited.increment();
+            hold(dedupNotice, appendEvent);
+            return;
+        }
+        final CircuitBreaker circuitBreaker = targets[0].circuitBreaker;
+        if (!failover && circuitBreaker != null && !circuitBreaker.tryAcquire(System.nanoTime())) {
+            circuitSuppressed.incrementAndGet();
+            metrics.alertsCircuitSuppressed.increment();
+            hold(dedupNotice, appendEvent);
+            return;
+        }
+        LogEvent rateLimitNotice = null;
+        final long held = rateLimiter != null ? rateLimited.getAndSet(0) : 0;
+        if (held > 0) {
+            rateLimitNotice = createNotice(appendEvent, held + " alerts suppressed by the rate limit");
+        }
+        LogEvent unreportedNotice = null;
+        final long unreported = fingerprints != null ? fingerprints.drainUnreported(appendEvent.getTimeMillis()) : 0;
+        if (unreported > 0) {
+            // the repeats of errors evicted from the cache, or which did not recur after the TTL
+            unreportedNotice = createNotice(appendEvent, unreported + " repeats of other errors were suppressed");
+        }
+        final LogEvent[] priorEvents = append(append(append(
+                buffer.removeContext(appendEvent), unreportedNotice), rateLimitNotice), dedupNotice);
+        final Personalization[] recipients = router != null ? router.route(appendEvent) : null;
+        if (sender == null) {
+            try {
+                deliver(Collections.singletonList(new PendingMail(layout, priorEvents, appendEvent, recipients, configuration)));
+            } finally {
+                deliverCircuitSummary();
+            }
+        } else {
+            sender.enqueue(new PendingMail(layout, priorEvents, appendEvent.toImmutable(), recipients, configuration));
+        }
+    }
+
+    /**
+     * Keep a triggering event that may not be mailed now as context for the next email.
+     */
+    private void hold(final LogEvent dedupNotice, final LogEvent appendEvent) {
+        if (dedupNotice != null) {
+            buffer.add(dedupNotice);
+        }
+        buffer.add(appendEvent);
+    }
+
+    /**
+     * Send the pending mails, merging consecutive mails that share a layout and recipients into a single message.
+     * <p>
+     * When batching, the mails that share a layout are sent in a single request instead,
+     * each as a separate message.
+     * <p>
+     * A message that fails is counted as dropped and does not hold back the following ones.
+     *
+     * @param mails The pending mails in the order they were triggered.
+     * @throws LoggingException if any of the messages failed, once all of them were tried.
+     */
+    private void deliver(final List<PendingMail> mails) {
+        // a substitution holds a single content and attachments belong to the message,
+        // so a mail with a plain text alternative or an attachment is never batched
+        final boolean batch = data.maxBatchSize > 1 && data.coalesceMillis <= 0 && template != null
+                && data.textLayout == null && !data.attachContext;
+        LoggingException failure = null;
+        int start = 0;
+        for (int i = 1; i <= mails.size(); i++) {
+            if (i == mails.size() || mails.get(i).layout != mails.get(start).layout
+                    || !batch && mails.get(i).recipients != mails.get(start).recipients) {
+                final List<PendingMail> group = mails.subList(start, i);
+                failure = first(failure, batch && group.size() > 1 ? sendBatch(group) : trySend(group, null));
+                start = i;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Send mails as a single message, counting them as dropped if it fails.
+     *
+     * @return the failure, already reported, or null if the message was sent.
+     */
+    private LoggingException trySend(final List<PendingMail> mails, final RenderCache cache) {
         try {
-            final Mail message = createMailMessage(data, appendEvent);
-            final Content content = new Content();
-            if (layout instanceof HtmlLayout) {
-                content.setType("text/html");
-            } else {
-                content.setType("text/plain");
-            }
-            final StringBuilder stringBuilder = new StringBuilder();
-            final byte[] header = layout.getHeader();
-            if (header != null) {
-                stringBuilder.append(new String(header, StandardCharsets.UTF_8));
-            }
-            final LogEvent[] priorEvents = buffer.removeAll();
-            for (final LogEvent priorEvent : priorEvents) {
-                stringBuilder.append(layout.toSerializable(priorEvent));
-            }
-            stringBuilder.append(layout.toSerializable(appendEvent));
-            final byte[] footer = layout.getFooter();
-            if (footer != null) {
-                stringBuilder.append(new String(footer, StandardCharsets.UTF_8));
-            }
-            content.setValue(stringBuilder.toString());
-            message.addContent(content);
-            final Request request = new Request();
-            request.setMethod(Method.POST);
-            request.setEndpoint("mail/send");
-            request.setBody(message.build());
-            sendGrid.api(request);
+            send(mails, cache);
+            return null;
+        } catch (final LoggingException e) {
+            undelivered.add(mails.size());
+            return e;
+        }
+    }
+
+    private static LoggingException first(final LoggingException failure, final LoggingException next) {
+        return failure != null ? failure : next;
+    }
+
+    /**
+     * Send mails as a single message.
+     *
+     * @param mails The pending mails in the order they were triggered.
+     * @param cache The events already formatted during this delivery, may be null.
+     */
+    private void send(final List<PendingMail> mails, final RenderCache cache) {
+        final Layout<?> layout = mails.get(0).layout;
+        final LogEvent appendEvent = mails.get(0).appendEvent;
+        try {
+            final Mail message = createMailMessage(data, appendEvent, mails.get(0).recipients);
+            final String envelope = message.build();
+            final byte[] body;
+            final boolean compressed;
+            final MailBodyWriter writer = acquireWriter();
+            try {
+                if (data.textLayout != null && layout instanceof HtmlLayout) {
+                    // both parts are formatted in the same pass over the events
+                    writer.write(envelope, MULTIPART_TYPES, new Layout<?>[]{data.textLayout, layout}, mails,
+                            data.maxBodyBytes, cache, data.attachContext);
+                } else {
+                    writer.write(envelope, new String[]{contentType(layout)}, new Layout<?>[]{layout}, mails,
+                            data.maxBodyBytes, cache, data.attachContext);
+                }
+                compressed = gzip != null && writer.length() >= data.gzipThreshold;
+                body = compressed ? gzip.encode(writer.array(), writer.length()) : writer.toByteArray();
+            } finally {
+                releaseWriter(writer);
+            }
+            transmit(body, compressed, mails);
         } catch (IOException | AddressException e) {
             logError("Caught exception while sending e-mail notification.", e);
             throw new LoggingException("Error occurred while sending email", e);
         }
     }
 
-    private static Mail createMailMessage(final FactoryData data, final LogEvent appendEvent) throws AddressException {
-        final Mail message = new SendGridMessageBuilder()
-                .setFrom(data.from)
-                .setReplyTo(data.replyTo)
-                .setRecipients(Message.RecipientType.TO, data.to)
-                .setRecipients(Message.RecipientType.CC, data.cc)
-                .setRecipients(Message.RecipientType.BCC, data.bcc)
-                .setSubject(data.subjectSerializer != null ? data.subjectSerializer.toSerializable(appendEvent) : data.subject).build();
-        if (data.sandboxMode) {
-            message.setMailSettings(SANDBOX_MAIL_SETTINGS);
+    /**
+     * Send mails sharing a layout in as few requests as possible, each mail being a separate message
+     * sent to its own personalizations, with its own subject and its content as a substitution.
+     * <p>
+     * A mail whose content exceeds the size SendGrid allows for substitutions is sent on its own,
+     * reusing the events formatted for the substitution.
+     *
+     * @param mails The pending mails in the order they were triggered.
+     * @return the first failure, already reported, or null if every request was sent.
+     */
+    private LoggingException sendBatch(final List<PendingMail> mails) {
+        final Layout<?> layout = mails.get(0).layout;
+        final RenderCache cache = new RenderCache(layout);
+        LoggingException failure = null;
+        List<PendingMail> batch = new ArrayList<>();
+        SendGridMessageBuilder personalizations = new SendGridMessageBuilder();
+        int count = 0;
+        for (final PendingMail mail : mails) {
+            final Personalization[] recipients = template.recipients(mail.recipients);
+            final String content = render(layout, mail, cache);
+            if (recipients.length > MAX_PERSONALIZATIONS || exceedsSubstitution(content)) {
+                failure = first(failure, trySend(Collections.singletonList(mail), cache));
+                continue;
+            }
+            if (count + recipients.length > MAX_PERSONALIZATIONS) {
+                failure = first(failure, sendBatch(layout, batch, personalizations, cache));
+                batch = new ArrayList<>();
+                personalizations = new SendGridMessageBuilder();
+                count = 0;
+            }
+            final String subject = data.mailSubject.render(mail.appendEvent);
+            for (final Personalization group : recipients) {
+                personalizations.addPersonalization()
+                        .addRecipients(group)
+                        .setPersonalizationSubject(subject)
+                        .addSubstitution(CONTENT_KEY, content);
+            }
+            count += recipients.length;
+            batch.add(mail);
+        }
+        if (!batch.isEmpty()) {
+            failure = first(failure, sendBatch(layout, batch, personalizations, cache));
+        }
+        return failure;
+    }
+
+    private LoggingException sendBatch(final Layout<?> layout, final List<PendingMail> batch,
+                                       final SendGridMessageBuilder personalizations, final RenderCache cache) {
+        if (batch.size() == 1) {
+            // a single mail is sent as usual, without formatting its events again
+            return trySend(batch, cache);
+        }
+        try {
+            final Mail message = template.newMail(null,
+                    personalizations.build().getPersonalization().toArray(new Personalization[0]));
+            message.addContent(new Content(contentType(layout), CONTENT_KEY));
+            final byte[] json = message.build().getBytes(StandardCharsets.UTF_8);
+            final boolean compressed = gzip != null && json.length >= data.gzipThreshold;
+            transmit(compressed ? gzip.encode(json, json.length) : json, compressed, batch);
+            return null;
+        } catch (final IOException e) {
+            logError("Caught exception while sending e-mail notification.", e);
+            undelivered.add(batch.size());
+            return new LoggingException("Error occurred while sending email", e);
+        }
+    }
+
+    /**
+     * Send a serialized request, then fall back to the failover appender, a retry or the spool.
+     */
+    private void transmit(final byte[] body, final boolean compressed, final List<PendingMail> mails) throws IOException {
+        final SerializedRequest delivery = new SerializedRequest(body, compressed, mails.get(0));
+        try {
+            delivery.send();
+        } catch (final IOException e) {
+            if (forward(mails, e)) {
+                return;
+            }
+            // a retry reuses the serialized body
+            if (retrier != null && retrier.retry(delivery, 1, e)) {
+                return;
+            }
+            if (spool(body, compressed, e)) {
+                return;
+            }
+            throw e;
         }
-        return message;
+    }
+
+    private static String contentType(final Layout<?> layout) {
+        return layout instanceof HtmlLayout ? "text/html" : "text/plain";
+    }
+
+    /**
+     * Render the content of a mail as a String, for a substitution.
+     */
+    private static String render(final Layout<?> layout, final PendingMail mail, final RenderCache cache) {
+        final Charset charset = layout instanceof StringLayout ? ((StringLayout) layout).getCharset() : StandardCharsets.UTF_8;
+        final StringBuilder content = new StringBuilder();
+        if (layout.getHeader() != null) {
+            content.append(new String(layout.getHeader(), charset));
+        }
+        for (final LogEvent priorEvent : mail.priorEvents) {
+            content.append(cache.render(priorEvent));
+        }
+        content.append(cache.render(mail.appendEvent));
+        if (layout.getFooter() != null) {
+            content.append(new String(layout.getFooter(), charset));
+        }
+        return content.toString();
+    }
+
+    private static boolean exceedsSubstitution(final String content) {
+        // a char takes at most 3 bytes in UTF-8
+        return content.length() * 3 > MAX_SUBSTITUTION_BYTES
+                && content.getBytes(StandardCharsets.UTF_8).length > MAX_SUBSTITUTION_BYTES;
+    }
+
+    /**
+     * Post a request to the endpoints of the chain in order, until one of them accepts it.
+     *
+     * @param mail  The first mail of the request.
+     * @param retry Whether this is a retry of a failed request.
+     */
+    private void post(final byte[] body, final boolean compressed, final PendingMail mail,
+                      final boolean retry) throws IOException {
+        IOException failure = null;
+        for (final MailTarget target : targets) {
+            // without a failover chain, the circuit breaker was asked when the alert was triggered,
+            // but not since for a retry
+            if ((failover || retry) && target.circuitBreaker != null
+                    && !target.circuitBreaker.tryAcquire(System.nanoTime())) {
+                continue;
+            }
+            try {
+                post(target, body, compressed, mail);
+                return;
+            } catch (final IOException e) {
+                if (target != targets[targets.length - 1]) {
+                    LOGGER.warn("SendGrid {} failed, failing over: {}", target.name, e.getMessage());
+                }
+                // a retryable failure decides whether the whole chain is worth another attempt
+                if (failure == null || !MailRetrier.isRetryable(failure)) {
+                    failure = e;
+                }
+            }
+        }
+        throw failure != null ? failure : new IOException("No SendGrid endpoint is available");
+    }
+
+    private void post(final MailTarget target, final byte[] body, final boolean compressed,
+                      final PendingMail mail) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            target.transport(compressed).post("mail/send", body, compressed);
+            metrics.sendLatency.record(System.nanoTime() - start);
+            metrics.requestsSent.increment();
+        } catch (final IOException e) {
+            metrics.sendLatency.record(System.nanoTime() - start);
+            metrics.requestsFailed.increment();
+            if (target.circuitBreaker != null && MailRetrier.isRetryable(e)) {
+                final long now = System.nanoTime();
+                target.circuitBreaker.onFailure(now - start, now);
+            } else {
+                // a rejected request still shows that SendGrid is reachable
+                recordSuccess(target.circuitBreaker, start, mail);
+            }
+            throw e;
+        }
+        recordSuccess(target.circuitBreaker, start, mail);
+        if (spool != null && spool.hasPending()) {
+            spool.replayAsync(this::replay);
+        }
+    }
+
+    /**
+     * Keep a request that could not be delivered in the spool, unless SendGrid rejected it.
+     *
+     * @return true if the request was spooled.
+     */
+    private boolean spool(final byte[] body, final boolean compressed, final IOException failure) {
+        if (spool == null || !MailRetrier.isRetryable(failure) || !spool.append(body, compressed)) {
+            return false;
+        }
+        metrics.requestsSpooled.increment();
+        LOGGER.warn("Spooled e-mail notification of {} for replay: {}", getName(), failure.getMessage());
+        return true;
+    }
+
+    /**
+     * Send a spooled request to the first healthy endpoint, dropping it if SendGrid rejects it.
+     */
+    private void replay(final byte[] body, final boolean compressed) throws IOException {
+        MailTarget target = null;
+        for (int i = 0; i < targets.length && target == null; i++) {
+            target = targets[i].isClosed() ? targets[i] : null;
+        }
+        if (target == null) {
+            throw new IOException("No SendGrid endpoint is available");
+        }
+        final long start = System.nanoTime();
+        try {
+            if (compressed && !target.gzipTransport.supportsGzip()) {
+                target.transport.post("mail/send", GzipEncoder.decode(body), false);
+            } else {
+                target.transport(compressed).post("mail/send", body, compressed);
+            }
+            metrics.sendLatency.record(System.nanoTime() - start);
+            metrics.requestsSent.increment();
+        } catch (final IOException e) {
+            metrics.sendLatency.record(System.nanoTime() - start);
+            metrics.requestsFailed.increment();
+            if (MailRetrier.isRetryable(e)) {
+                throw e;
+            }
+            logError("Dropped spooled e-mail notification rejected by SendGrid", e);
+        }
+    }
+
+    /**
+     * Forward the events of the mails to the failover appender, once every SendGrid endpoint failed.
+     * <p>
+     * The appender is resolved from the configuration of the appender that triggered the mails, as the manager
+     * outlives a reconfiguration and the appenders of the previous configuration are stopped.
+     *
+     * @return true if the failover appender took the events.
+     */
+    private boolean forward(final List<PendingMail> mails, final IOException failure) {
+        final Configuration configuration = mails.get(0).configuration;
+        if (data.failoverAppender == null || data.failoverAppender.isEmpty() || configuration == null) {
+            return false;
+        }
+        final Appender appender = configuration.getAppender(data.failoverAppender);
+        if (appender == null || !appender.isStarted()) {
+            LOGGER.warn("Failover appender {} of {} is not available", data.failoverAppender, getName());
+            return false;
+        }
+        try {
+            for (final PendingMail mail : mails) {
+                for (final LogEvent event : mail.priorEvents) {
+                    appender.append(event);
+                }
+                appender.append(mail.appendEvent);
+            }
+        } catch (final RuntimeException e) {
+            logError("Failover appender " + data.failoverAppender + " failed", e);
+            return false;
+        }
+        metrics.requestsForwarded.increment();
+        LOGGER.warn("Forwarded e-mail notification of {} to appender {}: {}",
+                getName(), data.failoverAppender, failure.getMessage());
+        return true;
+    }
+
+    private void recordSuccess(final CircuitBreaker circuitBreaker, final long start, final PendingMail mail) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (!circuitBreaker.onSuccess(now - start, now)) {
+            return;
+        }
+        final long suppressed = circuitSuppressed.getAndSet(0);
+        if (suppressed > 0) {
+            // the held alerts went out as context of the trial mail, report how many there were,
+            // along with what was held back since in the context of the trial mail only
+            final LogEvent notice = createNotice(mail.appendEvent,
+                    suppressed + " alerts suppressed while SendGrid was unavailable");
+            final PendingMail summary = new PendingMail(mail.layout, buffer.removeContext(mail.appendEvent),
+                    notice, null, mail.configuration);
+            if (sender != null) {
+                sender.enqueue(summary);
+            } else {
+                // not sent from within the current request, but once it is over
+                circuitSummary.set(summary);
+            }
+        }
+    }
+
+    /**
+     * Send the summary of the alerts held back by the circuit breaker, once the circuit closed.
+     * Without an asynchronous sender, it waits for the end of the send that closed the circuit,
+     * or for the next alert or the manager to stop when that was a retry or a replay of the spool.
+     */
+    private void deliverCircuitSummary() {
+        final PendingMail summary = circuitSummary.getAndSet(null);
+        if (summary == null) {
+            return;
+        }
+        try {
+            deliver(Collections.singletonList(summary));
+        } catch (final LoggingException ignored) {
+            // already reported
+        }
+    }
+
+    /**
+     * A request whose body is serialized once, for every attempt.
+     */
+    private final class SerializedRequest implements MailRetrier.Delivery {
+        private final byte[] body;
+        private final boolean compressed;
+        private final PendingMail mail;
+        // set once the first attempt was made, by the thread that then hands the request to the retrier
+        private boolean attempted;
+
+        SerializedRequest(final byte[] body, final boolean compressed, final PendingMail mail) {
+            this.body = body;
+            this.compressed = compressed;
+            this.mail = mail;
+        }
+
+        @Override
+        public void send() throws IOException {
+            final boolean retry = attempted;
+            attempted = true;
+            post(body, compressed, mail, retry);
+        }
+
+        @Override
+        public void failed(final IOException failure) {
+            spool(body, compressed, failure);
+        }
+    }
+
+    /**
+     * Take the writer reused across messages, allocating another one only while it is in use by a concurrent send.
+     */
+    private MailBodyWriter acquireWriter() {
+        final MailBodyWriter writer = idleWriter.getAndSet(null);
+        return writer != null ? writer : new MailBodyWriter();
+    }
+
+    private void releaseWriter(final MailBodyWriter writer) {
+        if (writer.isReusable()) {
+            idleWriter.set(writer);
+        } else {
+            writer.close();
+        }
+    }
+
+    private MailSpool createSpool(final FactoryData data) {
+        if (data.spoolDirectory == null || data.spoolDirectory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new MailSpool(data.spoolDirectory, data.spoolSegmentSize, data.spoolMaxBytes, data.spoolSync);
+        } catch (final IOException e) {
+            logError("Unable to open the spool directory " + data.spoolDirectory, e);
+            return null;
+        }
+    }
+
+    private static MailTarget createTarget(final String name, final SendGrid sendGrid, final MailTransport transport,
+                                           final FactoryData data, final boolean circuitBreaker) {
+        // the SendGrid client only sends String bodies
+        final MailTransport gzipTransport = !data.gzip || transport.supportsGzip()
+                ? transport : createHttpTransport(sendGrid, data);
+        return new MailTarget(sendGrid.getHost(), transport, gzipTransport, circuitBreaker
+                ? new CircuitBreaker(name, data.circuitFailureRate, data.circuitSlowCallMillis,
+                data.circuitSlowCallRate, data.circuitWindowSize, data.circuitOpenMillis) : null);
+    }
+
+    private static MailTransport createTransport(final SendGrid sendGrid, final FactoryData data) {
+        if (data.transportType == TransportType.JDK) {
+            return createHttpTransport(sendGrid, data);
+        }
+        return new SendGridClientTransport(sendGrid);
+    }
+
+    private static MailTransport createHttpTransport(final SendGrid sendGrid, final FactoryData data) {
+        return new HttpMailTransport(sendGrid, data.connectTimeoutMillis, data.readTimeoutMillis,
+                data.http2, data.virtualThreads);
+    }
+
+    private static LogEvent[] append(final LogEvent[] events, final LogEvent event) {
+        if (event == null) {
+            return events;
+        }
+        final LogEvent[] result = Arrays.copyOf(events, events.length + 1);
+        result[events.length] = event;
+        return result;
+    }
+
+    /**
+     * Create an event that reports what the appender did with earlier events, rendered by the layout
+     * alongside the buffered events.
+     */
+    private static LogEvent createNotice(final LogEvent appendEvent, final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(appendEvent.getLoggerName())
+                .setLoggerFqcn(SendGridManager.class.getName())
+                .setLevel(appendEvent.getLevel())
+                .setThreadName(appendEvent.getThreadName())
+                .setTimeMillis(appendEvent.getTimeMillis())
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    @Override
+    protected boolean releaseSub(final long timeout, final TimeUnit timeUnit) {
+        boolean stopped = sender == null || sender.stop(timeout, timeUnit);
+        if (retrier != null) {
+            stopped &= retrier.stop(timeout, timeUnit);
+        }
+        deliverCircuitSummary();
+        if (gzip != null) {
+            gzip.close();
+        }
+        final MailBodyWriter writer = idleWriter.getAndSet(null);
+        if (writer != null) {
+            writer.close();
+        }
+        if (spool != null) {
+            stopped &= spool.close(timeout, timeUnit);
+        }
+        for (final MailTarget target : targets) {
+            target.close();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (final JMException e) {
+                LOGGER.warn("Unable to unregister the metrics of {}: {}", metricsName, e.getMessage());
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Register the metrics as an MBean named after the manager, without its API key.
+     *
+     * @return the name of the MBean, or null if it could not be registered.
+     */
+    private ObjectName registerMetrics(final String name, final FactoryData data) {
+        final String displayName = mask(mask(name, data.apiKey), data.failoverApiKey);
+        try {
+            final ObjectName objectName = new ObjectName(
+                    "com.github.akunzai.log4j:type=SendGridManager,name=" + ObjectName.quote(displayName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            return objectName;
+        } catch (final JMException e) {
+            logError("Unable to register the metrics of " + displayName, e);
+            return null;
+        }
+    }
+
+    private static String mask(final String name, final String apiKey) {
+        return apiKey == null || apiKey.isEmpty() ? name : name.replace(apiKey, "***");
+    }
+
+    private MailTemplate createTemplate(final FactoryData data) {
+        try {
+            return new MailTemplate(data);
+        } catch (final AddressException e) {
+            logError("Invalid e-mail address in the configuration", e);
+            return null;
+        }
+    }
+
+    private MailRouter createRouter(final FactoryData data) {
+        if (!MailRouter.isEnabled(data.routeSource, data.routes)) {
+            return null;
+        }
+        try {
+            return new MailRouter(data.routeSource, data.routeKey, data.routes);
+        } catch (final AddressException e) {
+            logError("Invalid e-mail address in the routing rules", e);
+            return null;
+        }
+    }
+
+    private Mail createMailMessage(final FactoryData data, final LogEvent appendEvent,
+                                   final Personalization[] recipients) throws AddressException {
+        // an invalid configuration fails every message, as it did before the template was cached
+        final MailTemplate mailTemplate = template != null ? template : new MailTemplate(data);
+        return mailTemplate.newMail(data.mailSubject.render(appendEvent), recipients);
     }
 
     /**
@@ -118,41 +830,215 @@ class SendGridManager extends AbstractManager {
         final String cc;
         final String bcc;
         final String from;
+        final String fallbackFrom;
         final String replyTo;
         final String subject;
-        final Serializer subjectSerializer;
+        final MailSubject mailSubject;
         final String host;
         final String apiKey;
         final boolean sandboxMode;
         final int bufferSize;
+        final boolean async;
+        final int queueCapacity;
+        final OverflowPolicy overflowPolicy;
+        final long overflowTimeoutMillis;
+        final long coalesceMillis;
+        final int maxEventsPerMail;
+        final long dedupTtlMillis;
+        final int dedupCacheSize;
+        final int dedupStackFrames;
+        final int rateLimitBurst;
+        final int rateLimitPerMinute;
+        final boolean compactCapture;
+        final BufferPartition bufferPartition;
+        final String partitionKey;
+        final int maxPartitions;
+        final long partitionIdleMillis;
+        final boolean gzip;
+        final int gzipThreshold;
+        final TransportType transportType;
+        final long connectTimeoutMillis;
+        final long readTimeoutMillis;
+        final boolean http2;
+        final boolean virtualThreads;
+        final int maxAttempts;
+        final long retryBaseMillis;
+        final long retryMaxMillis;
+        final int maxPendingRetries;
+        final boolean circuitBreaker;
+        final int circuitFailureRate;
+        final long circuitSlowCallMillis;
+        final int circuitSlowCallRate;
+        final int circuitWindowSize;
+        final long circuitOpenMillis;
+        final String spoolDirectory;
+        final int spoolSegmentSize;
+        final long spoolMaxBytes;
+        final SpoolSync spoolSync;
+        final String failoverHost;
+        final String failoverApiKey;
+        final String failoverAppender;
+        final RouteSource routeSource;
+        final String routeKey;
+        final MailRoute[] routes;
+        final int maxBatchSize;
+        final int maxBodyBytes;
+        final boolean jmx;
+        final Layout<String> textLayout;
+        final boolean attachContext;
+        final int partitionSize;
         final String managerName;
 
-
         FactoryData(
                 final String to,
                 final String cc,
                 final String bcc,
                 final String from,
+                final String fallbackFrom,
                 final String replyTo,
                 final String subject,
-                final Serializer subjectSerializer,
+                final MailSubject mailSubject,
                 final String host,
                 final String apiKey,
                 final boolean sandboxMode,
-                final int bufferSize) {
+                final int bufferSize,
+                final boolean async,
+                final int queueCapacity,
+                final OverflowPolicy overflowPolicy,
+                final long overflowTimeoutMillis,
+                final long coalesceMillis,
+                final int maxEventsPerMail,
+                final long dedupTtlMillis,
+                final int dedupCacheSize,
+                final int dedupStackFrames,
+                final int rateLimitBurst,
+                final int rateLimitPerMinute,
+                final boolean compactCapture,
+                final BufferPartition bufferPartition,
+                final String partitionKey,
+                final int maxPartitions,
+                final long partitionIdleMillis,
+                final boolean gzip,
+                final int gzipThreshold,
+                final TransportType transportType,
+                final long connectTimeoutMillis,
+                final long readTimeoutMillis,
+                final boolean http2,
+                final boolean virtualThreads,
+                final int maxAttempts,
+                final long retryBaseMillis,
+                final long retryMaxMillis,
+                final int maxPendingRetries,
+                final boolean circuitBreaker,
+                final int circuitFailureRate,
+                final long circuitSlowCallMillis,
+                final int circuitSlowCallRate,
+                final int circuitWindowSize,
+                final long circuitOpenMillis,
+                final String spoolDirectory,
+                final int spoolSegmentSize,
+                final long spoolMaxBytes,
+                final SpoolSync spoolSync,
+                final String failoverHost,
+                final String failoverApiKey,
+                final String failoverAppender,
+                final RouteSource routeSource,
+                final String routeKey,
+                final MailRoute[] routes,
+                final int maxBatchSize,
+                final int maxBodyBytes,
+                final boolean jmx,
+                final Layout<String> textLayout,
+                final boolean attachContext,
+                final int partitionSize) {
             this.to = to;
             this.cc = cc;
             this.bcc = bcc;
             this.from = from;
+            this.fallbackFrom = fallbackFrom;
             this.replyTo = replyTo;
             this.subject = subject;
-            this.subjectSerializer = subjectSerializer;
+            this.mailSubject = mailSubject;
             this.host = host;
             this.apiKey = apiKey;
             this.sandboxMode = sandboxMode;
             this.bufferSize = bufferSize;
-            this.managerName = createManagerName(to, cc, bcc, from, replyTo, subject, host, apiKey, sandboxMode);
+            this.async = async;
+            this.queueCapacity = queueCapacity;
+            this.overflowPolicy = overflowPolicy;
+            this.overflowTimeoutMillis = overflowTimeoutMillis;
+            this.coalesceMillis = coalesceMillis;
+            this.maxEventsPerMail = maxEventsPerMail;
+            this.dedupTtlMillis = dedupTtlMillis;
+            this.dedupCacheSize = dedupCacheSize;
+            this.dedupStackFrames = dedupStackFrames;
+            this.rateLimitBurst = rateLimitBurst;
+            this.rateLimitPerMinute = rateLimitPerMinute;
+            this.compactCapture = compactCapture;
+            this.bufferPartition = bufferPartition;
+            this.partitionKey = partitionKey;
+            this.maxPartitions = maxPartitions;
+            this.partitionIdleMillis = partitionIdleMillis;
+            this.gzip = gzip;
+            this.gzipThreshold = gzipThreshold;
+            this.transportType = transportType;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.http2 = http2;
+            this.virtualThreads = virtualThreads;
+            this.maxAttempts = maxAttempts;
+            this.retryBaseMillis = retryBaseMillis;
+            this.retryMaxMillis = retryMaxMillis;
+            this.maxPendingRetries = maxPendingRetries;
+            this.circuitBreaker = circuitBreaker;
+            this.circuitFailureRate = circuitFailureRate;
+            this.circuitSlowCallMillis = circuitSlowCallMillis;
+            this.circuitSlowCallRate = circuitSlowCallRate;
+            this.circuitWindowSize = circuitWindowSize;
+            this.circuitOpenMillis = circuitOpenMillis;
+            this.spoolDirectory = spoolDirectory;
+            this.spoolSegmentSize = spoolSegmentSize;
+            this.spoolMaxBytes = spoolMaxBytes;
+            this.spoolSync = spoolSync;
+            this.failoverHost = failoverHost;
+            this.failoverApiKey = failoverApiKey;
+            this.failoverAppender = failoverAppender;
+            this.routeSource = routeSource;
+            this.routeKey = routeKey;
+            this.routes = routes;
+            this.maxBatchSize = Math.min(maxBatchSize, MAX_PERSONALIZATIONS);
+            this.maxBodyBytes = Math.max(0, maxBodyBytes);
+            this.jmx = jmx;
+            this.textLayout = textLayout;
+            this.attachContext = attachContext;
+            this.partitionSize = partitionSize;
+            // every setting shaping the behavior of the manager is part of its name,
+            // so that an appender never shares a manager built with the settings of another one
+            this.managerName = createManagerName(to, cc, bcc, from, replyTo, subject, host, apiKey, sandboxMode)
+                    + join(fallbackFrom, mailSubject == null ? 0 : mailSubject.getMaxLength(), bufferSize,
+                    async, queueCapacity, overflowPolicy, overflowTimeoutMillis, coalesceMillis, maxEventsPerMail,
+                    dedupTtlMillis, dedupCacheSize, dedupStackFrames, rateLimitBurst, rateLimitPerMinute,
+                    compactCapture, bufferPartition, partitionKey, maxPartitions, partitionIdleMillis,
+                    gzip, gzipThreshold, transportType, connectTimeoutMillis, readTimeoutMillis, http2, virtualThreads,
+                    maxAttempts, retryBaseMillis, retryMaxMillis, maxPendingRetries,
+                    circuitBreaker, circuitFailureRate, circuitSlowCallMillis, circuitSlowCallRate,
+                    circuitWindowSize, circuitOpenMillis, spoolDirectory, spoolSegmentSize, spoolMaxBytes, spoolSync,
+                    failoverHost, failoverApiKey, failoverAppender, this.maxBatchSize, this.maxBodyBytes, jmx,
+                    textLayout, attachContext, partitionSize)
+                    + (MailRouter.isEnabled(routeSource, routes)
+                    ? ":" + routeSource + ":" + routeKey + ":" + Arrays.toString(routes) : "");
+        }
+    }
+
+    private static String join(final Object... settings) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Object setting : settings) {
+            if (setting != null) {
+                sb.append(setting);
+            }
+            sb.append(':');
         }
+        return sb.toString();
     }
 
     private static String createManagerName(
@@ -199,6 +1085,8 @@ class SendGridManager extends AbstractManager {
 
         private Function<String,SendGrid> sendGridFactory = SendGrid::new;
 
+        private BiFunction<SendGrid, FactoryData, MailTransport> transportFactory = SendGridManager::createTransport;
+
         /**
          * Set the SendGrid factory for testing
          *
@@ -208,13 +1096,35 @@ class SendGridManager extends AbstractManager {
             this.sendGridFactory = sendGridFactory;
         }
 
+        /**
+         * Set the transport factory for testing
+         *
+         * @param transportFactory the transport factory, given the configured SendGrid client
+         */
+        public void setTransportFactory(BiFunction<SendGrid, FactoryData, MailTransport> transportFactory) {
+            this.transportFactory = transportFactory;
+        }
+
         @Override
         public SendGridManager createManager(final String name, final FactoryData data) {
             final SendGrid sendGrid = sendGridFactory.apply(data.apiKey);
             if (data.host != null && !data.host.isEmpty()) {
                 sendGrid.setHost(data.host);
             }
-            return new SendGridManager(name, sendGrid, data);
+            SendGrid failoverSendGrid = null;
+            MailTransport failoverTransport = null;
+            final boolean failoverHost = data.failoverHost != null && !data.failoverHost.isEmpty();
+            final boolean failoverApiKey = data.failoverApiKey != null && !data.failoverApiKey.isEmpty();
+            if (failoverHost || failoverApiKey) {
+                failoverSendGrid = sendGridFactory.apply(failoverApiKey ? data.failoverApiKey : data.apiKey);
+                final String host = failoverHost ? data.failoverHost : data.host;
+                if (host != null && !host.isEmpty()) {
+                    failoverSendGrid.setHost(host);
+                }
+                failoverTransport = transportFactory.apply(failoverSendGrid, data);
+            }
+            return new SendGridManager(name, sendGrid, transportFactory.apply(sendGrid, data),
+                    failoverSendGrid, failoverTransport, data);
         }
     }
 }
@@ -7,8 +7,13 @@ import jakarta.mail.Message;
 import jakarta.mail.internet.AddressException;
 import jakarta.mail.internet.InternetAddress;
 import org.apache.logging.log4j.core.util.Builder;
+import org.apache.logging.log4j.status.StatusLogger;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Builder for {@link Mail} instances.
@@ -31,18 +36,30 @@ public class SendGridMessageBuilder implements Builder<Mail> {
      * @throws AddressException Invalid Email address.
      */
     public SendGridMessageBuilder setFrom(final String from) throws AddressException {
-        final Email email = parseEmail(from);
+        return setFrom(from, null);
+    }
+
+    /**
+     * Set the envelope sender, with a fallback when it is unset
+     * <p>
+     * When neither address is set, the local address of the current user is used.
+     * It is resolved once per JVM, waiting at most a few seconds for the local host name.
+     *
+     * @param from         Email address of the sender.
+     * @param fallbackFrom Email address of the sender when {@code from} is unset.
+     * @return SendGridMessageBuilder
+     * @throws AddressException Invalid Email address.
+     */
+    public SendGridMessageBuilder setFrom(final String from, final String fallbackFrom) throws AddressException {
+        Email email = parseEmail(from);
+        if (email == null) {
+            email = parseEmail(fallbackFrom);
+        }
+        if (email == null) {
+            email = LocalAddress.EMAIL;
+        }
         if (email != null) {
             message.setFrom(email);
-        } else {
-            InternetAddress address = InternetAddress.getLocalAddress(null);
-            if (address != null) {
-                if (address.getPersonal() == null || address.getPersonal().isEmpty()) {
-                    message.setFrom(new Email(address.getAddress()));
-                } else {
-                    message.setFrom(new Email(address.getAddress(), address.getPersonal()));
-                }
-            }
         }
         return this;
     }
@@ -63,7 +80,20 @@ public class SendGridMessageBuilder implements Builder<Mail> {
     }
 
     /**
-     * Set the email recipients
+     * Start another personalization
+     * <p>
+     * The recipients, subject and substitutions set afterwards apply to the new personalization,
+     * so that a single request can send up to 1000 distinct messages.
+     *
+     * @return SendGridMessageBuilder
+     */
+    public SendGridMessageBuilder addPersonalization() {
+        message.addPersonalization(new Personalization());
+        return this;
+    }
+
+    /**
+     * Set the email recipients of the current personalization
      *
      * @param recipientType The recipient type (To,Cc,Bcc)
      * @param recipients    Comma-separated list of recipient email addresses.
@@ -72,9 +102,7 @@ public class SendGridMessageBuilder implements Builder<Mail> {
      */
     public SendGridMessageBuilder setRecipients(final Message.RecipientType recipientType,
                                                 final String recipients) throws AddressException {
-        final List<Personalization> personalizationList = message.getPersonalization();
-        final Personalization personalization = personalizationList == null ? new Personalization() : personalizationList
-                .get(0);
+        final Personalization personalization = currentPersonalization();
         final Collection<Email> emails = parseEmails(recipients);
         if (recipientType == Message.RecipientType.TO) {
             for (final Email email : emails) {
@@ -89,8 +117,31 @@ public class SendGridMessageBuilder implements Builder<Mail> {
                 personalization.addBcc(email);
             }
         }
-        if (personalizationList == null) {
-            message.addPersonalization(personalization);
+        return this;
+    }
+
+    /**
+     * Copy already parsed recipients into the current personalization
+     *
+     * @param recipients The personalization holding the recipients.
+     * @return SendGridMessageBuilder
+     */
+    public SendGridMessageBuilder addRecipients(final Personalization recipients) {
+        final Personalization personalization = currentPersonalization();
+        if (recipients.getTos() != null) {
+            for (final Email email : recipients.getTos()) {
+                personalization.addTo(email);
+            }
+        }
+        if (recipients.getCcs() != null) {
+            for (final Email email : recipients.getCcs()) {
+                personalization.addCc(email);
+            }
+        }
+        if (recipients.getBccs() != null) {
+            for (final Email email : recipients.getBccs()) {
+                personalization.addBcc(email);
+            }
         }
         return this;
     }
@@ -108,6 +159,40 @@ public class SendGridMessageBuilder implements Builder<Mail> {
         return this;
     }
 
+    /**
+     * Set the email subject of the current personalization, overriding the message subject
+     *
+     * @param subject Subject for the email messages of the personalization.
+     * @return SendGridMessageBuilder
+     */
+    public SendGridMessageBuilder setPersonalizationSubject(final String subject) {
+        if (subject != null) {
+            currentPersonalization().setSubject(subject);
+        }
+        return this;
+    }
+
+    /**
+     * Add a substitution to the current personalization
+     *
+     * @param key   The tag replaced in the subject and content, e.g. {@code -name-}.
+     * @param value The replacement, at most 10000 bytes for all the substitutions of a personalization.
+     * @return SendGridMessageBuilder
+     */
+    public SendGridMessageBuilder addSubstitution(final String key, final String value) {
+        currentPersonalization().addSubstitution(key, value);
+        return this;
+    }
+
+    private Personalization currentPersonalization() {
+        final List<Personalization> personalizationList = message.getPersonalization();
+        if (personalizationList == null || personalizationList.isEmpty()) {
+            addPersonalization();
+            return message.getPersonalization().get(0);
+        }
+        return personalizationList.get(personalizationList.size() - 1);
+    }
+
     @Override
     public Mail build() {
         return message;
@@ -135,4 +220,37 @@ public class SendGridMessageBuilder implements Builder<Mail> {
         }
         return Collections.unmodifiableList(emails);
     }
+
+    /**
+     * The local address of the current user, resolved on first use.
+     */
+    private static final class LocalAddress {
+        private static final long TIMEOUT_MILLIS = 5000;
+        private static final Email EMAIL = resolve();
+
+        private static Email resolve() {
+            // looking up the local host name may hang on a broken resolver
+            final FutureTask<InternetAddress> task = new FutureTask<>(() -> InternetAddress.getLocalAddress(null));
+            final Thread thread = new Thread(task, "SendGrid-LocalAddress");
+            thread.setDaemon(true);
+            thread.start();
+            try {
+                final InternetAddress address = task.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (address == null) {
+                    return null;
+                }
+                if (address.getPersonal() == null || address.getPersonal().isEmpty()) {
+                    return new Email(address.getAddress());
+                }
+                return new Email(address.getAddress(), address.getPersonal());
+            } catch (final TimeoutException e) {
+                StatusLogger.getLogger().warn("Timed out resolving the local e-mail address, set the from address explicitly");
+            } catch (final ExecutionException e) {
+                StatusLogger.getLogger().warn("Unable to resolve the local e-mail address", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
 }
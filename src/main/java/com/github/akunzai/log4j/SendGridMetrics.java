@@ -0,0 +1,251 @@
+package com.github.akunzai.log4j;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The live metrics of a SendGrid manager.
+ * <p>
+ * The counters are striped, so that concurrent logging threads do not contend on them,
+ * and updating them does not allocate.
+ */
+final class SendGridMetrics implements SendGridMetricsMXBean {
+    final LongAdder eventsBuffered = new LongAdder();
+    final LongAdder alerts = new LongAdder();
+    final LongAdder alertsDeduplicated = new LongAdder();
+    final LongAdder alertsRateLimited = new LongAdder();
+    final LongAdder alertsCircuitSuppressed = new LongAdder();
+    final LongAdder requestsSent = new LongAdder();
+    final LongAdder requestsFailed = new LongAdder();
+    final LongAdder requestsForwarded = new LongAdder();
+    final LongAdder requestsSpooled = new LongAdder();
+    final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    private final IntSupplier bufferOccupancy;
+    private final IntSupplier queueSize;
+    private final LongSupplier mailsDropped;
+
+    SendGridMetrics(final IntSupplier bufferOccupancy, final IntSupplier queueSize, final LongSupplier mailsDropped) {
+        this.bufferOccupancy = bufferOccupancy;
+        this.queueSize = queueSize;
+        this.mailsDropped = mailsDropped;
+    }
+
+    /**
+     * @return a copy of the current values.
+     */
+    SendGridMetricsMXBean snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public long getEventsBuffered() {
+        return eventsBuffered.sum();
+    }
+
+    @Override
+    public int getBufferOccupancy() {
+        return bufferOccupancy.getAsInt();
+    }
+
+    @Override
+    public long getAlerts() {
+        return alerts.sum();
+    }
+
+    @Override
+    public long getAlertsDeduplicated() {
+        return alertsDeduplicated.sum();
+    }
+
+    @Override
+    public long getAlertsRateLimited() {
+        return alertsRateLimited.sum();
+    }
+
+    @Override
+    public long getAlertsCircuitSuppressed() {
+        return alertsCircuitSuppressed.sum();
+    }
+
+    @Override
+    public long getMailsDropped() {
+        return mailsDropped.getAsLong();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queueSize.getAsInt();
+    }
+
+    @Override
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    @Override
+    public long getRequestsFailed() {
+        return requestsFailed.sum();
+    }
+
+    @Override
+    public long getRequestsForwarded() {
+        return requestsForwarded.sum();
+    }
+
+    @Override
+    public long getRequestsSpooled() {
+        return requestsSpooled.sum();
+    }
+
+    @Override
+    public double getSendLatencyMeanMillis() {
+        return sendLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getSendLatencyP50Millis() {
+        return sendLatency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getSendLatencyP99Millis() {
+        return sendLatency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getSendLatencyMaxMillis() {
+        return sendLatency.getMaxMillis();
+    }
+
+    private static final class Snapshot implements SendGridMetricsMXBean {
+        private final long eventsBuffered;
+        private final int bufferOccupancy;
+        private final long alerts;
+        private final long alertsDeduplicated;
+        private final long alertsRateLimited;
+        private final long alertsCircuitSuppressed;
+        private final long mailsDropped;
+        private final int queueSize;
+        private final long requestsSent;
+        private final long requestsFailed;
+        private final long requestsForwarded;
+        private final long requestsSpooled;
+        private final double sendLatencyMeanMillis;
+        private final double sendLatencyP50Millis;
+        private final double sendLatencyP99Millis;
+        private final double sendLatencyMaxMillis;
+
+        Snapshot(final SendGridMetricsMXBean metrics) {
+            this.eventsBuffered = metrics.getEventsBuffered();
+            this.bufferOccupancy = metrics.getBufferOccupancy();
+            this.alerts = metrics.getAlerts();
+            this.alertsDeduplicated = metrics.getAlertsDeduplicated();
+            this.alertsRateLimited = metrics.getAlertsRateLimited();
+            this.alertsCircuitSuppressed = metrics.getAlertsCircuitSuppressed();
+            this.mailsDropped = metrics.getMailsDropped();
+            this.queueSize = metrics.getQueueSize();
+            this.requestsSent = metrics.getRequestsSent();
+            this.requestsFailed = metrics.getRequestsFailed();
+            this.requestsForwarded = metrics.getRequestsForwarded();
+            this.requestsSpooled = metrics.getRequestsSpooled();
+            this.sendLatencyMeanMillis = metrics.getSendLatencyMeanMillis();
+            this.sendLatencyP50Millis = metrics.getSendLatencyP50Millis();
+            this.sendLatencyP99Millis = metrics.getSendLatencyP99Millis();
+            this.sendLatencyMaxMillis = metrics.getSendLatencyMaxMillis();
+        }
+
+        @Override
+        public long getEventsBuffered() {
+            return eventsBuffered;
+        }
+
+        @Override
+        public int getBufferOccupancy() {
+            return bufferOccupancy;
+        }
+
+        @Override
+        public long getAlerts() {
+            return alerts;
+        }
+
+        @Override
+        public long getAlertsDeduplicated() {
+            return alertsDeduplicated;
+        }
+
+        @Override
+        public long getAlertsRateLimited() {
+            return alertsRateLimited;
+        }
+
+        @Override
+        public long getAlertsCircuitSuppressed() {
+            return alertsCircuitSuppressed;
+        }
+
+        @Override
+        public long getMailsDropped() {
+            return mailsDropped;
+        }
+
+        @Override
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        @Override
+        public long getRequestsSent() {
+            return requestsSent;
+        }
+
+        @Override
+        public long getRequestsFailed() {
+            return requestsFailed;
+        }
+
+        @Override
+        public long getRequestsForwarded() {
+            return requestsForwarded;
+        }
+
+        @Override
+        public long getRequestsSpooled() {
+            return requestsSpooled;
+        }
+
+        @Override
+        public double getSendLatencyMeanMillis() {
+            return sendLatencyMeanMillis;
+        }
+
+        @Override
+        public double getSendLatencyP50Millis() {
+            return sendLatencyP50Millis;
+        }
+
+        @Override
+        public double getSendLatencyP99Millis() {
+            return sendLatencyP99Millis;
+        }
+
+        @Override
+        public double getSendLatencyMaxMillis() {
+            return sendLatencyMaxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "SendGridMetrics[eventsBuffered=" + eventsBuffered + ", bufferOccupancy=" + bufferOccupancy
+                    + ", alerts=" + alerts + ", alertsDeduplicated=" + alertsDeduplicated
+                    + ", alertsRateLimited=" + alertsRateLimited + ", alertsCircuitSuppressed=" + alertsCircuitSuppressed
+                    + ", mailsDropped=" + mailsDropped + ", queueSize=" + queueSize
+                    + ", requestsSent=" + requestsSent + ", requestsFailed=" + requestsFailed
+                    + ", requestsForwarded=" + requestsForwarded + ", requestsSpooled=" + requestsSpooled
+                    + ", sendLatencyMeanMillis=" + sendLatencyMeanMillis + ", sendLatencyP50Millis=" + sendLatencyP50Millis
+                    + ", sendLatencyP99Millis=" + sendLatencyP99Millis + ", sendLatencyMaxMillis=" + sendLatencyMaxMillis + "]";
+        }
+    }
+}
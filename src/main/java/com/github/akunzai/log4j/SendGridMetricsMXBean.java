@@ -0,0 +1,93 @@
+package com.github.akunzai.log4j;
+
+/**
+ * Metrics of a SendGrid manager, shared by the appenders with the same settings.
+ * <p>
+ * With {@code jmx="true"}, they are registered as the MBean
+ * {@code com.github.akunzai.log4j:type=SendGridManager,name="<manager name>"}, the API key being masked.
+ * {@link SendGridAppender#getMetrics()} returns a snapshot of them for other metrics systems.
+ * The counters are cumulative since the manager was created.
+ */
+public interface SendGridMetricsMXBean {
+
+    /**
+     * @return the number of non-triggering events captured in the buffer.
+     */
+    long getEventsBuffered();
+
+    /**
+     * @return the number of events currently in the buffer, approximately while events are being captured.
+     */
+    int getBufferOccupancy();
+
+    /**
+     * @return the number of triggering events.
+     */
+    long getAlerts();
+
+    /**
+     * @return the number of triggering events only counted as repeats of a recently mailed error.
+     */
+    long getAlertsDeduplicated();
+
+    /**
+     * @return the number of triggering events held back by the rate limit.
+     */
+    long getAlertsRateLimited();
+
+    /**
+     * @return the number of triggering events held back while the circuit breaker was open.
+     */
+    long getAlertsCircuitSuppressed();
+
+    /**
+     * @return the number of emails dropped because the asynchronous queue was full or stopped,
+     * or because they could not be sent, spooled nor forwarded.
+     */
+    long getMailsDropped();
+
+    /**
+     * @return the number of emails waiting in the asynchronous queue.
+     */
+    int getQueueSize();
+
+    /**
+     * @return the number of requests accepted by SendGrid, including retries and spool replays.
+     */
+    long getRequestsSent();
+
+    /**
+     * @return the number of failed requests, including the failed attempts of requests retried later.
+     */
+    long getRequestsFailed();
+
+    /**
+     * @return the number of requests whose events were forwarded to the failover appender.
+     */
+    long getRequestsForwarded();
+
+    /**
+     * @return the number of requests kept in the spool for replay.
+     */
+    long getRequestsSpooled();
+
+    /**
+     * @return the mean duration of a SendGrid call in milliseconds.
+     */
+    double getSendLatencyMeanMillis();
+
+    /**
+     * @return the median duration of a SendGrid call in milliseconds.
+     */
+    double getSendLatencyP50Millis();
+
+    /**
+     * @return the 99th percentile of the duration of a SendGrid call in milliseconds.
+     */
+    double getSendLatencyP99Millis();
+
+    /**
+     * @return the longest duration of a SendGrid call in milliseconds.
+     */
+    double getSendLatencyMaxMillis();
+}
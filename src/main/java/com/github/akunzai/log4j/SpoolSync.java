@@ -0,0 +1,19 @@
+package com.github.akunzai.log4j;
+
+/**
+ * When the spool forces its memory-mapped segments to disk.
+ */
+public enum SpoolSync {
+    /**
+     * Leave writing the segments back to the operating system, which survives a crash of the process but not of the host.
+     */
+    NONE,
+    /**
+     * Force a segment to disk once it is full or the spool is closed.
+     */
+    SEGMENT,
+    /**
+     * Force the segment to disk after every record.
+     */
+    RECORD
+}
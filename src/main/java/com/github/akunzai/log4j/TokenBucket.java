@@ -0,0 +1,46 @@
+package com.github.akunzai.log4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiting how often emails are sent.
+ * <p>
+ * Implemented as a generic cell rate algorithm: the only state is the theoretical arrival time of the
+ * next token, advanced with compare-and-set, so acquiring a token neither locks nor allocates.
+ */
+final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrivalNanos;
+
+    /**
+     * @param burst            Number of tokens available at once.
+     * @param refillsPerMinute Number of tokens added per minute.
+     * @param nowNanos         The current {@link System#nanoTime()}.
+     */
+    TokenBucket(final int burst, final int refillsPerMinute, final long nowNanos) {
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, refillsPerMinute);
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Take a token if one is available.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return true if a token was taken.
+     */
+    boolean tryAcquire(final long nowNanos) {
+        while (true) {
+            final long arrival = theoreticalArrivalNanos.get();
+            if (arrival - nowNanos > toleranceNanos) {
+                return false;
+            }
+            final long next = (arrival - nowNanos > 0 ? arrival : nowNanos) + intervalNanos;
+            if (theoreticalArrivalNanos.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.akunzai.log4j;
+
+/**
+ * The HTTP client used to call the SendGrid API.
+ */
+public enum TransportType {
+    /**
+     * The HTTP client of the SendGrid library.
+     */
+    SENDGRID,
+    /**
+     * The JDK {@code java.net.http.HttpClient}, with persistent connections, HTTP/2 and configurable timeouts.
+     */
+    JDK
+}
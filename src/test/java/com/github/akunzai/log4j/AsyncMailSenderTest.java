@@ -0,0 +1,155 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncMailSenderTest {
+
+    private static PendingMail mail() {
+        return new PendingMail(null, new LogEvent[0], null, null, null);
+    }
+
+    @Test
+    public void testStopWhileEnqueueing() throws InterruptedException {
+        for (var round = 0; round < 20; round++) {
+            var delivered = new AtomicLong();
+            var sender = new AsyncMailSender("AsyncMailSenderTest", 1024, OverflowPolicy.DROP_NEWEST,
+                    0, 0, 0, 16, mails -> delivered.addAndGet(mails.size()));
+            sender.start();
+            var accepted = new AtomicLong();
+            var refused = new AtomicLong();
+            var start = new CountDownLatch(1);
+            var threads = new ArrayList<Thread>();
+            for (var t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (var i = 0; i < 2_000; i++) {
+                        if (sender.enqueue(mail())) {
+                            accepted.incrementAndGet();
+                        } else {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            Thread.sleep(1);
+            assertTrue(sender.stop(10, TimeUnit.SECONDS));
+            for (var thread : threads) {
+                thread.join();
+            }
+            // every accepted mail is delivered, none is left behind in the queue
+            assertEquals(accepted.get(), delivered.get());
+            assertEquals(refused.get(), sender.getDropped());
+            assertEquals(0, sender.size());
+        }
+    }
+
+    @Test
+    public void testStopWithoutTimeoutDoesNotWait() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var delivered = new AtomicLong();
+        var sender = new AsyncMailSender("AsyncMailSenderTest", 16, OverflowPolicy.DROP_NEWEST,
+                0, 0, 0, 1, mails -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.addAndGet(mails.size());
+        });
+        sender.start();
+        assertTrue(sender.enqueue(mail()));
+        var started = System.nanoTime();
+        assertFalse(sender.stop(0, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(sender.enqueue(mail()));
+        // the sender thread keeps draining in the background
+        release.countDown();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (delivered.get() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, delivered.get());
+    }
+
+    @Test
+    public void testBlockedEnqueueDoesNotHoldStop() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var delivering = new CountDownLatch(1);
+        var sender = new AsyncMailSender("AsyncMailSenderTest", 1, OverflowPolicy.BLOCK,
+                10_000, 0, 0, 1, mails -> {
+            delivering.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        assertTrue(sender.enqueue(mail()));
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        assertTrue(sender.enqueue(mail()));
+        var blocked = new AtomicBoolean(true);
+        var producer = new Thread(() -> blocked.set(sender.enqueue(mail())));
+        producer.start();
+        while (producer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        var started = System.nanoTime();
+        assertFalse(sender.stop(0, TimeUnit.MILLISECONDS));
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        // neither stopping nor the blocked producer waited for the overflow timeout
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        assertFalse(blocked.get());
+        assertEquals(1, sender.getDropped());
+        release.countDown();
+    }
+
+    @Test
+    public void testInterruptCountsQueuedMailsAsDropped() throws InterruptedException {
+        var delivering = new CountDownLatch(1);
+        var senderThread = new AtomicReference<Thread>();
+        var sender = new AsyncMailSender("AsyncMailSenderTest", 16, OverflowPolicy.DROP_NEWEST,
+                0, 0, 0, 1, mails -> {
+            senderThread.set(Thread.currentThread());
+            delivering.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        assertTrue(sender.enqueue(mail()));
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        assertTrue(sender.enqueue(mail()));
+        assertTrue(sender.enqueue(mail()));
+
+        senderThread.get().interrupt();
+        senderThread.get().join(TimeUnit.SECONDS.toMillis(10));
+
+        // the mails left in the queue are accounted for, and no more are accepted
+        assertEquals(2, sender.getDropped());
+        assertEquals(0, sender.size());
+        assertFalse(sender.enqueue(mail()));
+        assertEquals(3, sender.getDropped());
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+    private static final long OPEN = TimeUnit.SECONDS.toNanos(60);
+
+    @Test
+    public void testOpensOnFailureRate() {
+        var breaker = new CircuitBreaker("test", 50, 1000, 0, 4, 60_000);
+        var now = System.nanoTime();
+
+        breaker.onSuccess(FAST, now);
+        breaker.onFailure(FAST, now);
+        // half of the window is filled and half of the calls failed
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(now));
+        assertFalse(breaker.tryAcquire(now + OPEN - 1));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        var breaker = new CircuitBreaker("test", 50, 1000, 0, 4, 60_000);
+        var now = System.nanoTime();
+
+        breaker.onSuccess(FAST, now);
+        breaker.onSuccess(FAST, now);
+        breaker.onSuccess(FAST, now);
+        breaker.onFailure(FAST, now);
+        breaker.onSuccess(FAST, now);
+        // the oldest success slid out of the window, 1 of 4 calls failed
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(FAST, now);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() {
+        var breaker = new CircuitBreaker("test", 50, 1000, 100, 2, 60_000);
+        var now = System.nanoTime();
+
+        breaker.onSuccess(SLOW, now);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenTrial() {
+        var breaker = new CircuitBreaker("test", 50, 1000, 0, 2, 60_000);
+        var now = System.nanoTime();
+        breaker.onFailure(FAST, now);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // a single trial call once the open duration elapsed
+        var later = now + OPEN;
+        assertTrue(breaker.tryAcquire(later));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(later));
+        breaker.onFailure(FAST, later);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(later + 1));
+
+        var recovered = later + OPEN;
+        assertTrue(breaker.tryAcquire(recovered));
+        assertTrue(breaker.onSuccess(FAST, recovered));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(recovered));
+        assertFalse(breaker.onSuccess(FAST, recovered));
+    }
+
+    @Test
+    public void testLostTrialCall() {
+        var breaker = new CircuitBreaker("test", 50, 1000, 0, 2, 60_000);
+        var now = System.nanoTime();
+        breaker.onFailure(FAST, now);
+        assertTrue(breaker.tryAcquire(now + OPEN));
+
+        // the trial call never reported back, another one is let through after the open duration
+        assertFalse(breaker.tryAcquire(now + OPEN + 1));
+        assertTrue(breaker.tryAcquire(now + 2 * OPEN));
+    }
+}
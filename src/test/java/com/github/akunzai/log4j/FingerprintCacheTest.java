@@ -0,0 +1,115 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class FingerprintCacheTest {
+
+    private static Log4jLogEvent event(final String format, final Object parameter, final Throwable thrown) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("FingerprintCacheTest")
+                .setLevel(Level.ERROR)
+                .setMessage(new ParameterizedMessage(format, parameter))
+                .setThrown(thrown)
+                .build();
+    }
+
+    private static Throwable thrown(final StackTraceElement[] frames) {
+        var thrown = new IllegalStateException("boom");
+        thrown.setStackTrace(frames);
+        return thrown;
+    }
+
+    @Test
+    public void testFingerprintIgnoresParameters() {
+        var cache = new FingerprintCache(16, 1000, 3);
+        var exception = new IllegalStateException("boom");
+        assertEquals(
+                cache.fingerprint(event("Order {} failed", 1, exception)),
+                cache.fingerprint(event("Order {} failed", 2, exception)));
+        assertNotEquals(
+                cache.fingerprint(event("Order {} failed", 1, exception)),
+                cache.fingerprint(event("Order {} failed", 1, new IllegalArgumentException("boom"))));
+    }
+
+    @Test
+    public void testFingerprintComparesBoundedFrames() {
+        var cache = new FingerprintCache(16, 1000, 100);
+        var frames = new StackTraceElement[20];
+        for (var i = 0; i < frames.length; i++) {
+            frames[i] = new StackTraceElement("Caller" + i, "call", "Caller" + i + ".java", i + 1);
+        }
+        var deeper = frames.clone();
+        deeper[19] = new StackTraceElement("Other", "call", "Other.java", 1);
+        var top = frames.clone();
+        top[0] = new StackTraceElement("Other", "call", "Other.java", 1);
+
+        assertEquals(
+                cache.fingerprint(event("Order {} failed", 1, thrown(frames))),
+                cache.fingerprint(event("Order {} failed", 1, thrown(deeper))));
+        assertNotEquals(
+                cache.fingerprint(event("Order {} failed", 1, thrown(frames))),
+                cache.fingerprint(event("Order {} failed", 1, thrown(top))));
+    }
+
+    @Test
+    public void testAdmitSuppressesRepeatsWithinTtl() {
+        var cache = new FingerprintCache(16, 1000, 3);
+
+        assertNull(cache.admit(42, 0));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(42, 10));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(42, 999));
+        assertNull(cache.admit(43, 999));
+
+        var expired = cache.admit(42, 1000);
+        assertEquals(42, expired.fingerprint);
+        assertEquals(0, expired.mailedMillis);
+        assertEquals(2, expired.suppressed.get());
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(42, 1001));
+    }
+
+    @Test
+    public void testAdmitEvictsLeastRecentlySeen() {
+        var cache = new FingerprintCache(4, 1000, 3);
+        // all fingerprints map to the same set
+        for (var fingerprint = 0L; fingerprint < 4; fingerprint++) {
+            assertNull(cache.admit(fingerprint << 32, fingerprint));
+        }
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(0, 10));
+        assertNull(cache.admit(4L << 32, 11));
+        // the least recently seen fingerprint was evicted
+        assertNull(cache.admit(1L << 32, 12));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(0, 13));
+    }
+
+    @Test
+    public void testDrainUnreported() {
+        var cache = new FingerprintCache(4, 1000, 3);
+        for (var fingerprint = 0L; fingerprint < 4; fingerprint++) {
+            assertNull(cache.admit(fingerprint << 32, fingerprint));
+        }
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(1L << 32, 10));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(2L << 32, 11));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(2L << 32, 12));
+        assertEquals(0, cache.drainUnreported(100));
+
+        // the least recently seen fingerprint is evicted with its suppressed repeat
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(0, 20));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(2L << 32, 21));
+        assertSame(FingerprintCache.SUPPRESSED, cache.admit(3L << 32, 22));
+        assertNull(cache.admit(4L << 32, 30));
+        assertEquals(1, cache.drainUnreported(100));
+        assertEquals(0, cache.drainUnreported(100));
+
+        // the repeats of errors that did not recur are reported once their TTL expired
+        assertEquals(5, cache.drainUnreported(1003));
+        assertEquals(0, cache.drainUnreported(1003));
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GzipEncoderTest {
+
+    private static byte[] decode(final byte[] data) throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        var encoder = new GzipEncoder();
+        var data = "<tr><td>ERROR</td><td>Something failed</td></tr>\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        var buffer = Arrays.copyOf(data, data.length + 100);
+
+        var encoded = encoder.encode(buffer, data.length);
+
+        assertTrue(encoded.length < data.length / 10);
+        assertArrayEquals(data, decode(encoded));
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        var encoder = new GzipEncoder();
+        var first = "first body".getBytes(StandardCharsets.UTF_8);
+        var second = new byte[100_000];
+        new Random(42).nextBytes(second);
+
+        assertArrayEquals(first, decode(encoder.encode(first, first.length)));
+        assertArrayEquals(second, decode(encoder.encode(second, second.length)));
+        assertArrayEquals(new byte[0], decode(encoder.encode(new byte[0], 0)));
+        encoder.close();
+    }
+}
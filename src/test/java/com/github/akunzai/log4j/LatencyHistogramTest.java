@@ -0,0 +1,44 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            final int index = LatencyHistogram.indexOf(micros);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(index));
+            // the bucket is at most an eighth of its values wide
+            assertTrue(LatencyHistogram.upperBoundOf(index) - micros <= micros / 8);
+            if (index > 0) {
+                assertTrue(micros > LatencyHistogram.upperBoundOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(99));
+        assertEquals(0, histogram.getMeanMillis());
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+        assertEquals(100, histogram.getMaxMillis());
+        var p50 = histogram.getPercentileMillis(50);
+        assertTrue(p50 >= 50 && p50 <= 50 * 1.125, "p50=" + p50);
+        var p99 = histogram.getPercentileMillis(99);
+        assertTrue(p99 >= 99 && p99 <= 100, "p99=" + p99);
+        assertEquals(100, histogram.getPercentileMillis(100));
+    }
+}
@@ -0,0 +1,236 @@
+package com.github.akunzai.log4j;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailBodyWriterTest {
+
+    private static LogEvent event(final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(MailBodyWriterTest.class.getName())
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    private static PendingMail mail(final Layout<?> layout, final LogEvent[] priorEvents, final LogEvent appendEvent) {
+        return new PendingMail(layout, priorEvents, appendEvent, null, null);
+    }
+
+    @Test
+    public void testEscapesLayoutOutput() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m%n").build();
+        var special = "\"quoted\" back\\slash\ttab\u0001 caf\u00e9 \u6f22\u5b57 \ud83d\ude00";
+        var large = "x".repeat(20_000);
+        var mails = List.of(
+                mail(layout, new LogEvent[]{event(special)}, event(large)),
+                mail(layout, new LogEvent[0], event("last")));
+        var writer = new MailBodyWriter();
+
+        writer.write("{\"subject\":\"Hi\"}", new String[]{"text/plain"}, new Layout<?>[]{layout}, mails, 0, null, false);
+
+        var body = new ObjectMapper().readTree(writer.toString());
+        assertEquals("Hi", body.get("subject").asText());
+        var content = body.get("content").get(0);
+        assertEquals("text/plain", content.get("type").asText());
+        assertEquals(special + "\n" + large + "\nlast\n", content.get("value").asText());
+    }
+
+    @Test
+    public void testReuseAndEmptyEnvelope() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m").build();
+        var writer = new MailBodyWriter();
+
+        writer.write("{\"subject\":\"first\"}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[0], event("a much longer first message"))), 0, null, false);
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[0], event("second"))), 0, null, false);
+
+        var body = new ObjectMapper().readTree(writer.toString());
+        assertEquals(1, body.size());
+        assertEquals("second", body.get("content").get(0).get("value").asText());
+    }
+
+    @Test
+    public void testNonUtf8Layout() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m").withCharset(StandardCharsets.ISO_8859_1).build();
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[0], event("caf\u00e9"))), 0, null, false);
+
+        var body = new ObjectMapper().readTree(writer.toString());
+        assertEquals("caf\u00e9", body.get("content").get(0).get("value").asText());
+    }
+
+    @Test
+    public void testMaxBodyBytes() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m%n").build();
+        var priorEvents = new LogEvent[10];
+        for (int i = 0; i < priorEvents.length; i++) {
+            priorEvents[i] = event("prior event #" + i);
+        }
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, priorEvents, event("trigger"))), 200, null, false);
+
+        assertTrue(writer.length() <= 200);
+        var lines = new ObjectMapper().readTree(writer.toString()).get("content").get(0).get("value").asText().split("\n");
+        var omitted = Integer.parseInt(lines[0].substring(0, lines[0].indexOf(' ')));
+        assertEquals(omitted + " earlier events omitted", lines[0]);
+        // the newest events are kept in their original order
+        assertEquals(priorEvents.length + 1, omitted + lines.length - 1);
+        for (int i = 1; i < lines.length - 1; i++) {
+            assertEquals("prior event #" + (omitted + i - 1), lines[i]);
+        }
+        assertEquals("trigger", lines[lines.length - 1]);
+    }
+
+    @Test
+    public void testMaxBodyBytesKeepsTrigger() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m").build();
+        var large = "x".repeat(1000);
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/html"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[]{event("prior")}, event(large))), 100, null, false);
+
+        var value = new ObjectMapper().readTree(writer.toString()).get("content").get(0).get("value").asText();
+        assertEquals("<p>1 earlier event omitted</p>\n" + large, value);
+    }
+
+    @Test
+    public void testCollapse() {
+        var text = new StringBuilder("java.lang.StackOverflowError\n");
+        for (int i = 0; i < 30; i++) {
+            text.append("\tat com.example.Main.frame").append(i).append("(Main.java:").append(i).append(")\n");
+        }
+        text.append("Caused by: java.lang.IllegalStateException\n");
+        for (int i = 0; i < 5; i++) {
+            text.append("\tat com.example.Main.recurse(Main.java:42)\n");
+        }
+        text.append("\t... 3 more\n");
+
+        var lines = MailBodyWriter.collapse(text.toString()).split("\n");
+
+        assertEquals(MailBodyWriter.MAX_STACK_FRAMES + 6, lines.length);
+        assertEquals("\tat com.example.Main.frame19(Main.java:19)", lines[MailBodyWriter.MAX_STACK_FRAMES]);
+        assertEquals("\t... 10 frames omitted", lines[MailBodyWriter.MAX_STACK_FRAMES + 1]);
+        assertEquals("Caused by: java.lang.IllegalStateException", lines[MailBodyWriter.MAX_STACK_FRAMES + 2]);
+        assertEquals("\tat com.example.Main.recurse(Main.java:42)", lines[MailBodyWriter.MAX_STACK_FRAMES + 3]);
+        assertEquals("\t... repeated 4 more times", lines[MailBodyWriter.MAX_STACK_FRAMES + 4]);
+        assertEquals("\t... 3 more", lines[MailBodyWriter.MAX_STACK_FRAMES + 5]);
+        assertEquals("single line", MailBodyWriter.collapse("single line"));
+    }
+
+    @Test
+    public void testRenderCache() throws IOException {
+        // the sequence number changes every time an event is formatted
+        var layout = PatternLayout.newBuilder().withPattern("%sn %m%n").build();
+        var first = event("first");
+        var second = event("second");
+        var cache = new RenderCache(layout);
+        var rendered = cache.render(first);
+        assertSame(rendered, cache.render(first));
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[]{first}, second)), 0, cache, false);
+
+        var value = new ObjectMapper().readTree(writer.toString()).get("content").get(0).get("value").asText();
+        // the cached event is not formatted again, the other one is
+        assertTrue(value.startsWith(rendered));
+        assertTrue(value.substring(rendered.length()).endsWith(" second\n"));
+    }
+
+    @Test
+    public void testMultipart() throws IOException {
+        var text = PatternLayout.newBuilder().withPattern("%m%n").build();
+        var html = PatternLayout.newBuilder().withPattern("<p>%m</p>").withHeader("<html>").withFooter("</html>").build();
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain", "text/html"}, new Layout<?>[]{text, html},
+                List.of(mail(text, new LogEvent[]{event("prior")}, event("trigger"))), 0, null, false);
+
+        var content = new ObjectMapper().readTree(writer.toString()).get("content");
+        assertEquals(2, content.size());
+        assertEquals("text/plain", content.get(0).get("type").asText());
+        assertEquals("prior\ntrigger\n", content.get(0).get("value").asText());
+        assertEquals("text/html", content.get(1).get("type").asText());
+        assertEquals("<html><p>prior</p><p>trigger</p></html>", content.get(1).get("value").asText());
+    }
+
+    @Test
+    public void testMultipartMaxBodyBytes() throws IOException {
+        var text = PatternLayout.newBuilder().withPattern("%m%n").build();
+        var html = PatternLayout.newBuilder().withPattern("<p>%m</p>%n").build();
+        var priorEvents = new LogEvent[10];
+        for (int i = 0; i < priorEvents.length; i++) {
+            priorEvents[i] = event("prior event #" + i);
+        }
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain", "text/html"}, new Layout<?>[]{text, html},
+                List.of(mail(text, priorEvents, event("trigger"))), 400, null, false);
+
+        assertTrue(writer.length() <= 400);
+        var content = new ObjectMapper().readTree(writer.toString()).get("content");
+        var textLines = content.get(0).get("value").asText().split("\n");
+        var htmlLines = content.get(1).get("value").asText().split("\n");
+        var omitted = Integer.parseInt(textLines[0].substring(0, textLines[0].indexOf(' ')));
+        assertEquals(omitted + " earlier events omitted", textLines[0]);
+        assertEquals("<p>" + omitted + " earlier events omitted</p>", htmlLines[0]);
+        // the same events are kept in both parts
+        assertEquals(textLines.length, htmlLines.length);
+        for (int i = 1; i < textLines.length; i++) {
+            assertEquals("<p>" + textLines[i] + "</p>", htmlLines[i]);
+        }
+        assertEquals("trigger", textLines[textLines.length - 1]);
+    }
+
+    @Test
+    public void testAttachContext() throws IOException {
+        var layout = PatternLayout.newBuilder().withPattern("%m%n").build();
+        var large = "x".repeat(20_000);
+        var mails = List.of(
+                mail(layout, new LogEvent[]{event("prior \"quoted\""), event(large)}, event("first")),
+                mail(layout, new LogEvent[0], event("second")));
+        var writer = new MailBodyWriter();
+
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout}, mails, 0, null, true);
+
+        var body = new ObjectMapper().readTree(writer.toString());
+        // only the triggering events are inlined
+        assertEquals("first\nsecond\n", body.get("content").get(0).get("value").asText());
+        var attachment = body.get("attachments").get(0);
+        assertEquals("application/gzip", attachment.get("type").asText());
+        assertEquals("log4j-context.log.gz", attachment.get("filename").asText());
+        assertEquals("attachment", attachment.get("disposition").asText());
+        var context = GzipEncoder.decode(Base64.getDecoder().decode(attachment.get("content").asText()));
+        assertEquals("prior \"quoted\"\n" + large + "\nfirst\nsecond\n", new String(context, StandardCharsets.UTF_8));
+        assertTrue(attachment.get("content").asText().length() < large.length() / 10);
+
+        // without buffered events, nothing is attached
+        writer.write("{}", new String[]{"text/plain"}, new Layout<?>[]{layout},
+                List.of(mail(layout, new LogEvent[0], event("alone"))), 0, null, true);
+
+        assertNull(new ObjectMapper().readTree(writer.toString()).get("attachments"));
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailRetrierTest {
+
+    private static MailDeliveryException status(final int statusCode, final long retryAfterMillis) {
+        return new MailDeliveryException("status " + statusCode, statusCode, retryAfterMillis, null);
+    }
+
+    @Test
+    public void testRetryableFailures() {
+        assertTrue(MailRetrier.isRetryable(new IOException("Connection reset")));
+        assertTrue(MailRetrier.isRetryable(new SocketTimeoutException("Read timed out")));
+        assertTrue(MailRetrier.isRetryable(status(429, -1)));
+        assertTrue(MailRetrier.isRetryable(status(503, -1)));
+        assertFalse(MailRetrier.isRetryable(status(400, -1)));
+        assertFalse(MailRetrier.isRetryable(status(401, -1)));
+        assertFalse(MailRetrier.isRetryable(new InterruptedIOException()));
+    }
+
+    @Test
+    public void testBackoff() {
+        var retrier = new MailRetrier("test", 10, 100, 1000, 1);
+        try {
+            for (int i = 0; i < 100; i++) {
+                var first = retrier.delayMillis(1, status(503, -1));
+                assertTrue(first >= 50 && first <= 100, "first backoff " + first);
+                var third = retrier.delayMillis(3, status(503, -1));
+                assertTrue(third >= 200 && third <= 400, "third backoff " + third);
+                var capped = retrier.delayMillis(9, status(503, -1));
+                assertTrue(capped >= 500 && capped <= 1000, "capped backoff " + capped);
+            }
+            assertEquals(5000, retrier.delayMillis(1, status(429, 5000)));
+        } finally {
+            retrier.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120_000, HttpMailTransport.parseRetryAfter("120"));
+        var date = ZonedDateTime.now().plusMinutes(1).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        var millis = HttpMailTransport.parseRetryAfter(date);
+        assertTrue(millis > 50_000 && millis <= 60_000, "Retry-After " + millis);
+        assertEquals(-1, HttpMailTransport.parseRetryAfter("soon"));
+    }
+
+    @Test
+    public void testRetryUntilSuccess() throws InterruptedException {
+        var retrier = new MailRetrier("test", 3, 50, 100, 1);
+        var attempts = new AtomicInteger(1);
+        MailRetrier.Delivery delivery = () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw status(503, -1);
+            }
+        };
+
+        assertTrue(retrier.retry(delivery, 1, status(503, -1)));
+        // only one retry may be pending
+        assertFalse(retrier.retry(delivery, 1, status(503, -1)));
+        // a final attempt is not retried
+        assertFalse(retrier.retry(delivery, 3, status(503, -1)));
+        for (int i = 0; i < 100 && attempts.get() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(retrier.stop(1, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+}
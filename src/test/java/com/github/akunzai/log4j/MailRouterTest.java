@@ -0,0 +1,116 @@
+package com.github.akunzai.log4j;
+
+import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.Personalization;
+import jakarta.mail.internet.AddressException;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MailRouterTest {
+
+    private static Log4jLogEvent.Builder event(final String loggerName) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(loggerName)
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("Error message"));
+    }
+
+    private static List<String> recipients(final Personalization[] personalizations) {
+        return Arrays.stream(personalizations)
+                .map(personalization -> personalization.getTos().stream().map(Email::getEmail).collect(Collectors.joining(",")))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRouteByContext() throws AddressException {
+        var router = new MailRouter(RouteSource.CONTEXT, "tenant", new MailRoute[]{
+                MailRoute.createRoute("a", "oncall@a.example.com", null, null),
+                MailRoute.createRoute("b", "oncall@b.example.com", null, "audit@example.com"),
+                MailRoute.createRoute("b", "team@b.example.com", null, null)});
+
+        LogEvent tenantA = event("MailRouterTest").setContextData(new SortedArrayStringMap(Map.of("tenant", "a"))).build();
+        LogEvent tenantB = event("MailRouterTest").setContextData(new SortedArrayStringMap(Map.of("tenant", "b"))).build();
+        LogEvent unknown = event("MailRouterTest").setContextData(new SortedArrayStringMap(Map.of("tenant", "c"))).build();
+
+        assertEquals(List.of("oncall@a.example.com"), recipients(router.route(tenantA)));
+        // every rule of a tenant is its own personalization of the same request
+        var personalizations = router.route(tenantB);
+        assertEquals(List.of("oncall@b.example.com", "team@b.example.com"), recipients(personalizations));
+        assertEquals("audit@example.com", personalizations[0].getBccs().get(0).getEmail());
+        assertNull(router.route(unknown));
+        assertNull(router.route(event("MailRouterTest").build()));
+    }
+
+    @Test
+    public void testRouteByLoggerPrefix() throws AddressException {
+        var router = new MailRouter(RouteSource.LOGGER, null, new MailRoute[]{
+                MailRoute.createRoute("com.example", "platform@example.com", null, null),
+                MailRoute.createRoute("com.example.billing", "billing@example.com", null, null)});
+
+        var billing = router.route(event("com.example.billing.InvoiceService").build());
+        assertEquals(List.of("billing@example.com", "platform@example.com"), recipients(billing));
+        assertEquals(List.of("platform@example.com"), recipients(router.route(event("com.example.Main").build())));
+        assertNull(router.route(event("org.example.Main").build()));
+        // the resolved recipients are cached per logger name
+        assertSame(billing, router.route(event("com.example.billing.InvoiceService").build()));
+    }
+
+    @Test
+    public void testRouteByMarker() throws AddressException {
+        Marker tenants = MarkerManager.getMarker("MailRouterTest-TENANTS");
+        Marker tenantA = MarkerManager.getMarker("MailRouterTest-TENANT_A").addParents(tenants);
+        var router = new MailRouter(RouteSource.MARKER, null, new MailRoute[]{
+                MailRoute.createRoute("MailRouterTest-TENANT_A", "oncall@a.example.com", null, null),
+                MailRoute.createRoute("MailRouterTest-TENANTS", "platform@example.com", null, null)});
+
+        assertEquals(List.of("oncall@a.example.com", "platform@example.com"),
+                recipients(router.route(event("MailRouterTest").setMarker(tenantA).build())));
+        assertEquals(List.of("platform@example.com"),
+                recipients(router.route(event("MailRouterTest").setMarker(tenants).build())));
+        assertNull(router.route(event("MailRouterTest").build()));
+    }
+
+    @Test
+    public void testRouteByMarkerParentAddedLater() throws AddressException {
+        Marker tenants = MarkerManager.getMarker("MailRouterTest-LATE_TENANTS");
+        Marker tenantB = MarkerManager.getMarker("MailRouterTest-LATE_TENANT_B");
+        var router = new MailRouter(RouteSource.MARKER, null, new MailRoute[]{
+                MailRoute.createRoute("MailRouterTest-LATE_TENANTS", "platform@example.com", null, null)});
+
+        assertNull(router.route(event("MailRouterTest").setMarker(tenantB).build()));
+        tenantB.addParents(tenants);
+        assertEquals(List.of("platform@example.com"),
+                recipients(router.route(event("MailRouterTest").setMarker(tenantB).build())));
+    }
+
+    @Test
+    public void testRejectRouteWithoutRecipients() {
+        assertThrows(AddressException.class, () -> new MailRouter(RouteSource.CONTEXT, "tenant", new MailRoute[]{
+                MailRoute.createRoute("a", "oncall@a.example.com", null, null),
+                MailRoute.createRoute("b", null, "team@b.example.com", null)}));
+        assertNull(SendGridAppender.newBuilder()
+                .setName("MailRouterTest")
+                .setTo("default@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("MailRouterTest")
+                .setRouteBy(RouteSource.CONTEXT)
+                .setRoutes(MailRoute.createRoute("a", " ", null, null))
+                .build());
+    }
+}
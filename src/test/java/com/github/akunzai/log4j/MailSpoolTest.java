@@ -0,0 +1,126 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailSpoolTest {
+    @TempDir
+    Path directory;
+
+    private static byte[] body(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> replayAll(final MailSpool spool) {
+        var replayed = new ArrayList<String>();
+        spool.replay((body, gzip) -> replayed.add((gzip ? "gzip:" : "") + new String(body, StandardCharsets.UTF_8)));
+        return replayed;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testReplayInOrder() throws IOException {
+        var spool = new MailSpool(directory.toString(), 1024, 1024 * 1024, SpoolSync.RECORD);
+        assertFalse(spool.hasPending());
+
+        assertTrue(spool.append(body("first"), false));
+        assertTrue(spool.append(body("second"), true));
+        assertTrue(spool.hasPending());
+
+        assertEquals(List.of("first", "gzip:second"), replayAll(spool));
+        assertFalse(spool.hasPending());
+        // delivered records are not replayed again
+        assertEquals(List.of(), replayAll(spool));
+        spool.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReplayStopsOnFailure() throws IOException {
+        var spool = new MailSpool(directory.toString(), 1024, 1024 * 1024, SpoolSync.NONE);
+        spool.append(body("first"), false);
+        spool.append(body("second"), false);
+
+        var attempts = new ArrayList<String>();
+        var replayed = spool.replay((body, gzip) -> {
+            attempts.add(new String(body, StandardCharsets.UTF_8));
+            if (attempts.size() == 2) {
+                throw new IOException("Connection reset");
+            }
+        });
+
+        assertEquals(1, replayed);
+        assertTrue(spool.hasPending());
+        // the failed record is replayed again, the delivered one is not
+        assertEquals(List.of("second"), replayAll(spool));
+        spool.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        var spool = new MailSpool(directory.toString(), 1024, 1024 * 1024, SpoolSync.SEGMENT);
+        spool.append(body("first"), false);
+        spool.append(body("second"), false);
+        spool.replay(new MailSpool.Replayer() {
+            private boolean failed;
+
+            @Override
+            public void replay(final byte[] body, final boolean gzip) throws IOException {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+                throw new IOException("Connection refused");
+            }
+        });
+        spool.close(1, TimeUnit.SECONDS);
+
+        var reopened = new MailSpool(directory.toString(), 1024, 1024 * 1024, SpoolSync.SEGMENT);
+        assertTrue(reopened.hasPending());
+        reopened.append(body("third"), false);
+        assertEquals(List.of("first", "second", "third"), replayAll(reopened));
+        // the segment of the previous run is deleted once delivered
+        assertEquals(1, segmentCount());
+        reopened.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        var spool = new MailSpool(directory.toString(), 64, 128, SpoolSync.NONE);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spool.append(body("record-" + "x".repeat(30) + i), false));
+        }
+
+        assertEquals(2, segmentCount());
+        // only the records of the newest segments are kept
+        assertEquals(List.of("record-" + "x".repeat(30) + 8, "record-" + "x".repeat(30) + 9), replayAll(spool));
+        spool.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLargeRecord() throws IOException {
+        var spool = new MailSpool(directory.toString(), 64, 1024 * 1024, SpoolSync.NONE);
+        var large = "x".repeat(500);
+
+        assertTrue(spool.append(body(large), false));
+        assertEquals(List.of(large), replayAll(spool));
+        spool.close(1, TimeUnit.SECONDS);
+    }
+}
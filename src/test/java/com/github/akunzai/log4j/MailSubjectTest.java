@@ -0,0 +1,61 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailSubjectTest {
+
+    private static Log4jLogEvent event(final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("MailSubjectTest")
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    @Test
+    public void testIsConstant() {
+        assertTrue(MailSubject.isConstant(null));
+        assertTrue(MailSubject.isConstant("Production errors"));
+        assertFalse(MailSubject.isConstant("[%p] %m"));
+        assertFalse(MailSubject.isConstant("${hostName} errors"));
+        assertFalse(MailSubject.isConstant("Errors\\t"));
+    }
+
+    @Test
+    public void testConstantSubject() {
+        var configuration = new DefaultConfiguration();
+        assertNull(MailSubject.create(configuration, null, 0).render(event("Error message")));
+        assertEquals("Production errors",
+                MailSubject.create(configuration, "Production errors", 0).render(event("Error message")));
+        assertEquals("Production\u2026",
+                MailSubject.create(configuration, "Production errors", 11).render(event("Error message")));
+    }
+
+    @Test
+    public void testPatternSubject() {
+        var subject = MailSubject.create(new DefaultConfiguration(), "[%p] %m", 20);
+
+        assertEquals("[ERROR] Short", subject.render(event("Short")));
+        assertEquals("[ERROR] A much long\u2026",
+                subject.render(event("A much longer error message")));
+        // the reused buffer does not leak the previous subject
+        assertEquals("[ERROR] Again", subject.render(event("Again")));
+    }
+
+    @Test
+    public void testTruncationKeepsSurrogatePairs() {
+        var subject = MailSubject.create(new DefaultConfiguration(), "%m", 3);
+
+        assertEquals("a\u2026", subject.render(event("a\uD83D\uDD25b")));
+        assertEquals("ab\u2026", subject.render(event("ab\uD83D\uDD25")));
+    }
+}
@@ -5,10 +5,11 @@ import com.sendgrid.Response;
 import com.sendgrid.SendGrid;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MockSendGrid extends SendGrid {
 
-    private final List<Request> requests = new ArrayList<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
 
     public MockSendGrid(String apiKey) {
         super(apiKey);
@@ -0,0 +1,113 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionedEventBufferTest {
+
+    private static LogEvent event(final String requestId, final long timeMillis, final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("PartitionedEventBufferTest")
+                .setLevel(Level.INFO)
+                .setTimeMillis(timeMillis)
+                .setContextData(new SortedArrayStringMap(Map.of("requestId", requestId)))
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    private static String messages(final LogEvent[] events) {
+        return String.join(",", Arrays.stream(events).map(event -> event.getMessage().getFormattedMessage()).toList());
+    }
+
+    private static PartitionedEventBuffer buffer(final int maxPartitions, final int bufferSize, final int partitionSize) {
+        return new PartitionedEventBuffer(BufferPartition.CONTEXT, "requestId", maxPartitions, 1000,
+                bufferSize, partitionSize, RingEventBuffer::new);
+    }
+
+    @Test
+    public void testPartitionsShareTheBufferSize() {
+        var buffer = buffer(100, 8, 2);
+        for (var key = 0; key < 10; key++) {
+            for (var i = 1; i <= 3; i++) {
+                buffer.add(event("request-" + key, key, "request-" + key + "#" + i));
+            }
+        }
+        // 8 slots of 2 events each, however many keys were seen
+        assertEquals(4, buffer.partitions());
+        assertEquals(8, buffer.size());
+        assertEquals("request-9#2,request-9#3", messages(buffer.removeContext(event("request-9", 9, "failed"))));
+    }
+
+    @Test
+    public void testMaxPartitionsWithinBudget() {
+        var buffer = buffer(2, 512, 32);
+        for (var key = 0; key < 5; key++) {
+            buffer.add(event("request-" + key, key, "request-" + key));
+        }
+        assertEquals(2, buffer.partitions());
+        assertEquals("request-4", messages(buffer.removeContext(event("request-4", 4, "failed"))));
+    }
+
+    @Test
+    public void testEvictsIdlePartitionsFirst() {
+        var buffer = buffer(2, 4, 2);
+        buffer.add(event("idle", 0, "idle#1"));
+        buffer.add(event("busy", 1500, "busy#1"));
+        buffer.add(event("busy", 1550, "busy#2"));
+        buffer.add(event("new", 1600, "new#1"));
+        assertEquals(2, buffer.partitions());
+        assertEquals("busy#1,busy#2", messages(buffer.removeContext(event("busy", 1600, "failed"))));
+        assertEquals("new#1", messages(buffer.removeContext(event("new", 1600, "failed"))));
+        assertEquals("", messages(buffer.removeContext(event("idle", 1600, "failed"))));
+    }
+
+    @Test
+    public void testIdlePartitionsEvictedOnSend() {
+        var buffer = buffer(10, 64, 4);
+        buffer.add(event("request-1", 0, "request-1"));
+        buffer.add(event("request-2", 900, "request-2"));
+        assertEquals(2, buffer.partitions());
+        buffer.removeContext(event("request-2", 1500, "failed"));
+        assertEquals(1, buffer.partitions());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testConcurrentKeysStayWithinBudget() throws InterruptedException {
+        var buffer = buffer(100, 16, 4);
+        var threads = new ArrayList<Thread>();
+        var start = new CountDownLatch(1);
+        for (var t = 0; t < 8; t++) {
+            var prefix = "T" + t + "#";
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (var i = 0; i < 10_000; i++) {
+                    buffer.add(event(prefix + (i % 50), 0, prefix + i));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertTrue(buffer.partitions() <= 4, "partitions: " + buffer.partitions());
+        assertTrue(buffer.size() <= 16, "size: " + buffer.size());
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.akunzai.log4j;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RingEventBufferTest {
+
+    private static LogEvent event(final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("RingEventBufferTest")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    private static String[] messages(final LogEvent[] events) {
+        var messages = new String[events.length];
+        for (var i = 0; i < events.length; i++) {
+            messages[i] = events[i].getMessage().getFormattedMessage();
+        }
+        return messages;
+    }
+
+    @Test
+    public void testKeepsNewestEventsInOrder() {
+        for (var buffer : new EventBuffer[]{new RingEventBuffer(3), new CompactEventBuffer(3)}) {
+            assertEquals(0, buffer.removeAll().length);
+            for (var i = 1; i <= 5; i++) {
+                buffer.add(event("#" + i));
+            }
+            assertEquals(3, buffer.size());
+            assertEquals(String.join(",", "#3", "#4", "#5"), String.join(",", messages(buffer.removeAll())));
+            assertEquals(0, buffer.size());
+            assertEquals(0, buffer.removeAll().length);
+            buffer.add(event("#6"));
+            assertEquals("#6", String.join(",", messages(buffer.removeAll())));
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        for (var buffer : new EventBuffer[]{new RingEventBuffer(64), new CompactEventBuffer(64)}) {
+            var threads = new ArrayList<Thread>();
+            var start = new CountDownLatch(1);
+            for (var t = 0; t < 8; t++) {
+                var prefix = "T" + t + "#";
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (var i = 0; i < 10_000; i++) {
+                        buffer.add(event(prefix + i));
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            var seen = new HashSet<String>();
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                for (var message : messages(buffer.removeAll())) {
+                    assertTrue(seen.add(message), "removed twice: " + message);
+                }
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+            var last = buffer.removeAll();
+            assertTrue(last.length <= 64);
+            for (var message : messages(last)) {
+                assertTrue(seen.add(message), "removed twice: " + message);
+            }
+        }
+    }
+
+    @Test
+    public void testWrapContention() throws InterruptedException {
+        for (var buffer : new EventBuffer[]{new RingEventBuffer(4), new CompactEventBuffer(4)}) {
+            var threads = new ArrayList<Thread>();
+            var start = new CountDownLatch(1);
+            for (var t = 0; t < 16; t++) {
+                var prefix = "T" + t + "#";
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (var i = 0; i < 5_000; i++) {
+                        buffer.add(event(prefix + i));
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            // the events of every producer are removed in the order they were added, each at most once
+            var last = new HashMap<String, Integer>();
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                for (var message : messages(buffer.removeAll())) {
+                    var thread = message.substring(0, message.indexOf('#'));
+                    var index = Integer.parseInt(message.substring(message.indexOf('#') + 1));
+                    var previous = last.put(thread, index);
+                    assertTrue(previous == null || previous < index, "out of order: " + message + " after #" + previous);
+                }
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+            buffer.removeAll();
+            // once the producers are done, no slot is left holding a stale event
+            for (var i = 1; i <= 6; i++) {
+                buffer.add(event("#" + i));
+            }
+            assertEquals(String.join(",", "#3", "#4", "#5", "#6"), String.join(",", messages(buffer.removeAll())));
+        }
+    }
+}
@@ -1,23 +1,47 @@
 package com.github.akunzai.log4j;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sendgrid.Request;
+import com.sendgrid.Response;
 import com.sendgrid.helpers.mail.Mail;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
 import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.config.Property;
 import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
 import org.apache.logging.log4j.core.filter.ThresholdFilter;
 import org.apache.logging.log4j.core.layout.HtmlLayout;
 import org.apache.logging.log4j.core.layout.PatternLayout;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SendGridAppenderTest {
@@ -177,6 +201,93 @@ public class SendGridAppenderTest {
         }
     }
 
+    @Test
+    public void testTemplateSharedAcrossMessages() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to1@example.com, Name <to2@example.com>")
+                .setCc("cc@example.com")
+                .setFrom("from@example.com")
+                .setReplyTo("replyTo@example.com")
+                .setSubject("Error: %m")
+                .setApiKey("apiKey-template")
+                .setBufferSize(1)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testTemplateSharedAcrossMessages");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 3; i++) {
+                logger.error("Template error #" + i);
+            }
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(3, sendGrid.getRequests().size());
+            var mapper = new ObjectMapper();
+            for (var i = 0; i < 3; i++) {
+                var mail = mapper.readValue(sendGrid.getRequests().get(i).getBody(), Mail.class);
+                // the parsed addresses are reused, but no message leaks into the next one
+                assertEquals("Error: Template error #" + (i + 1), mail.getSubject());
+                assertEquals(1, mail.getPersonalization().size());
+                var personalization = mail.getPersonalization().get(0);
+                assertNull(personalization.getSubject());
+                assertEquals(2, personalization.getTos().size());
+                assertEquals("to1@example.com", personalization.getTos().get(0).getEmail());
+                assertEquals("to2@example.com", personalization.getTos().get(1).getEmail());
+                assertEquals("Name", personalization.getTos().get(1).getName());
+                assertEquals("cc@example.com", personalization.getCcs().get(0).getEmail());
+                assertEquals("from@example.com", mail.getFrom().getEmail());
+                assertEquals("replyTo@example.com", mail.getReplyto().getEmail());
+                assertNull(mail.getMailSettings());
+                assertEquals(1, mail.getContent().size());
+            }
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testInvalidAddressFailsEverySend() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("<to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-invalid-address")
+                .setIgnoreExceptions(true)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testInvalidAddressFailsEverySend");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            logger.error("Error #1");
+            logger.error("Error #2");
+            // the invalid address is reported when the manager is created, and fails every message
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(0, sendGrid.getRequests().size());
+            assertEquals(2, appender.getMetrics().getAlerts());
+            assertEquals(2, appender.getMetrics().getMailsDropped());
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
     @Test
     @SuppressWarnings("deprecation")
     public void testCreateAppenderReturnsNullWithoutName() {
@@ -219,4 +330,1249 @@ public class SendGridAppenderTest {
             assertEquals("from@example.com", mail.getFrom().getEmail());
         }
     }
+
+    @Test
+    public void testAsyncDelivery() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-async")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setBufferSize(2)
+                .setAsync(true)
+                .setQueueCapacity(8)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testAsyncDelivery");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.debug("Async debug message");
+            logger.error("Async error #1");
+            logger.error("Async error #2");
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            // stopping drains the queue
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+            assertEquals(2, sendGrid.getRequests().size());
+            var mail = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class);
+            var body = mail.getContent().get(0).getValue();
+            assertTrue(body.contains("Async debug message"));
+            assertTrue(body.contains("Async error #1"));
+            assertFalse(body.contains("Async error #2"));
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-coalesce")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setCoalesceMillis(60_000)
+                .setMaxEventsPerMail(3)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testCoalescing");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 4; i++) {
+                logger.error("Storm error #" + i);
+            }
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+            // the first three errors reach maxEventsPerMail, the last one is flushed on stop
+            assertEquals(2, sendGrid.getRequests().size());
+            var mapper = new ObjectMapper();
+            var digest = mapper.readValue(sendGrid.getRequests().get(0).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(digest.contains("Storm error #1"));
+            assertTrue(digest.contains("Storm error #3"));
+            assertFalse(digest.contains("Storm error #4"));
+            var last = mapper.readValue(sendGrid.getRequests().get(1).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(last.contains("Storm error #4"));
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-dedup")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setDedupTtlMillis(60_000)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testDeduplication");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 3; i++) {
+                logger.error("Repeated error #{}", i, new IllegalStateException("Same failure"));
+            }
+            logger.error("Another error");
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(2, sendGrid.getRequests().size());
+            var mapper = new ObjectMapper();
+            var first = mapper.readValue(sendGrid.getRequests().get(0).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(first.contains("Repeated error #1"));
+            var second = mapper.readValue(sendGrid.getRequests().get(1).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(second.contains("Another error"));
+        }
+    }
+
+    @Test
+    public void testDeduplicationNotice() throws IOException, InterruptedException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-dedup-notice")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setDedupTtlMillis(200)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testDeduplicationNotice");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 4; i++) {
+                logger.error("Repeated error #{}", i);
+            }
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            Thread.sleep(300);
+            logger.error("Repeated error #{}", 5);
+
+            assertEquals(2, sendGrid.getRequests().size());
+            var second = new ObjectMapper().readValue(sendGrid.getRequests().get(1).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(second.contains("This error was seen 3 more times since"));
+            assertTrue(second.contains("Repeated error #5"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRateLimit() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-rate-limit")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setRateLimitBurst(2)
+                .setRateLimitPerMinute(1)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testRateLimit");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 5; i++) {
+                logger.error("Tight loop error #" + i);
+            }
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(2, sendGrid.getRequests().size());
+        }
+    }
+
+    @Test
+    public void testRateLimitNotice() throws IOException, InterruptedException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-rate-limit-notice")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setRateLimitBurst(2)
+                .setRateLimitPerMinute(120)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testRateLimitNotice");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.ERROR);
+
+            for (var i = 1; i <= 5; i++) {
+                logger.error("Tight loop error #" + i);
+            }
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(2, sendGrid.getRequests().size());
+            // a token is added every 500 ms
+            Thread.sleep(600);
+            logger.error("Error after the storm");
+
+            assertEquals(3, sendGrid.getRequests().size());
+            var next = new ObjectMapper().readValue(sendGrid.getRequests().get(2).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(next.contains("3 alerts suppressed by the rate limit"));
+            // the held alerts are sent as context of the next allowed email
+            for (var i = 3; i <= 5; i++) {
+                assertTrue(next.contains("Tight loop error #" + i));
+            }
+            assertTrue(next.contains("Error after the storm"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testCompactCapture() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-compact")
+                .setLayout(PatternLayout.newBuilder().withPattern("%level|%logger|%thread|%msg%n%ex").build())
+                .setBufferSize(2)
+                .setCompactCapture(true)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testCompactCapture");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.debug("Compact debug #{}", 1);
+            logger.warn("Compact warn #{}", 2, new IllegalStateException("Buffered exception"));
+            logger.error("Compact error");
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            var body = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(body.contains("DEBUG|testCompactCapture|" + Thread.currentThread().getName() + "|Compact debug #1"));
+            assertTrue(body.contains("WARN|testCompactCapture|" + Thread.currentThread().getName() + "|Compact warn #2"));
+            assertTrue(body.contains("Buffered exception"));
+            assertTrue(body.contains("Compact error"));
+        }
+    }
+
+    @Test
+    public void testContextPartition() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-partition")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setBufferPartition(BufferPartition.CONTEXT)
+                .setPartitionKey("requestId")
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testContextPartition");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            ThreadContext.put("requestId", "request-1");
+            logger.debug("Handling request #1");
+            ThreadContext.put("requestId", "request-2");
+            logger.debug("Handling request #2");
+            ThreadContext.put("requestId", "request-1");
+            logger.error("Request #1 failed");
+            ThreadContext.remove("requestId");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            var body = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class)
+                    .getContent().get(0).getValue();
+            assertTrue(body.contains("Handling request #1"));
+            assertFalse(body.contains("Handling request #2"));
+            assertTrue(body.contains("Request #1 failed"));
+        }
+    }
+
+    @Test
+    public void testGzipCompression() throws IOException {
+        List<String> encodings = new CopyOnWriteArrayList<>();
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            encodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (var in = new GZIPInputStream(exchange.getRequestBody())) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-gzip")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setGzip(true)
+                .setGzipThreshold(2048)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testGzipCompression");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Small error");
+            for (int i = 0; i < 100; i++) {
+                logger.debug("Context message #{}", i);
+            }
+            logger.error("Large error");
+
+            // the small body stays below the threshold and goes through the SendGrid client
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            assertEquals(List.of("gzip"), encodings);
+            var body = new ObjectMapper().readValue(bodies.get(0), Mail.class).getContent().get(0).getValue();
+            assertTrue(body.contains("Context message #99"));
+            assertTrue(body.contains("Large error"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testJdkTransport() throws IOException {
+        List<String> authorizations = new CopyOnWriteArrayList<>();
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-jdk")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setConnectTimeoutMillis(1000)
+                .setReadTimeoutMillis(5000)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testJdkTransport");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("First error");
+            logger.error("Second error");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertTrue(sendGrid.getRequests().isEmpty());
+            assertEquals(List.of("Bearer apiKey-jdk", "Bearer apiKey-jdk"), authorizations);
+            var body = new ObjectMapper().readValue(bodies.get(1), Mail.class).getContent().get(0).getValue();
+            assertTrue(body.contains("Second error"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRetry() throws IOException, InterruptedException {
+        var statusCodes = new ConcurrentLinkedQueue<>(List.of(503, 429, 202));
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.getResponseHeaders().add("Retry-After", "0");
+            exchange.sendResponseHeaders(statusCodes.poll(), -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-retry")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(3)
+                .setRetryBaseMillis(10)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testRetry");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error during an outage");
+            for (int i = 0; i < 500 && bodies.size() < 3; i++) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(3, bodies.size());
+            assertTrue(statusCodes.isEmpty());
+            // every attempt sends the same serialized body
+            assertArrayEquals(bodies.get(0), bodies.get(2));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws IOException, InterruptedException {
+        var statusCodes = new ConcurrentLinkedQueue<>(List.of(503, 202, 202));
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(statusCodes.poll(), -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-circuit")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(1)
+                .setCircuitBreaker(true)
+                .setCircuitWindowSize(2)
+                .setCircuitOpenMillis(200)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testCircuitBreaker");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error opening the circuit");
+            logger.error("Held error #1");
+            logger.error("Held error #2");
+            assertEquals(1, bodies.size());
+
+            Thread.sleep(300);
+            logger.error("Trial error");
+
+            // the trial mail with the alerts held back as context, then one summary
+            assertEquals(3, bodies.size());
+            var trial = new ObjectMapper().readValue(bodies.get(1), Mail.class).getContent().get(0).getValue();
+            assertTrue(trial.contains("Held error #1"));
+            assertTrue(trial.contains("Held error #2"));
+            assertTrue(trial.contains("Trial error"));
+            var summary = new ObjectMapper().readValue(bodies.get(2), Mail.class).getContent().get(0).getValue();
+            assertTrue(summary.contains("2 alerts suppressed while SendGrid was unavailable"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testAsyncCircuitSummary() throws IOException, InterruptedException {
+        var statusCodes = new ConcurrentLinkedQueue<>(List.of(503, 202, 202));
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(statusCodes.poll(), -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-asyncCircuit")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(1)
+                .setCircuitBreaker(true)
+                .setCircuitWindowSize(2)
+                .setCircuitOpenMillis(200)
+                .setAsync(true)
+                .setBufferPartition(BufferPartition.CONTEXT)
+                .setPartitionKey("requestId")
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testAsyncCircuitSummary");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            ThreadContext.put("requestId", "request-1");
+            logger.error("Error opening the circuit");
+            for (var i = 0; i < 100 && bodies.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            logger.error("Held error #1");
+            ThreadContext.put("requestId", "request-2");
+            logger.error("Held error #2");
+            logger.debug("Handling request #2");
+
+            Thread.sleep(300);
+            ThreadContext.put("requestId", "request-1");
+            logger.error("Trial error");
+            ThreadContext.remove("requestId");
+            // stopping drains the summary queued by the sender thread
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+            assertEquals(3, bodies.size());
+            var trial = new ObjectMapper().readValue(bodies.get(1), Mail.class).getContent().get(0).getValue();
+            assertTrue(trial.contains("Held error #1"));
+            assertTrue(trial.contains("Trial error"));
+            // the summary does not take the events of other partitions
+            var summary = new ObjectMapper().readValue(bodies.get(2), Mail.class).getContent().get(0).getValue();
+            assertTrue(summary.contains("2 alerts suppressed while SendGrid was unavailable"));
+            assertFalse(summary.contains("Held error #2"));
+            assertFalse(summary.contains("Handling request #2"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRetryHonorsOpenCircuit() throws IOException, InterruptedException {
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-retryCircuit")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(3)
+                .setRetryBaseMillis(10)
+                .setCircuitBreaker(true)
+                .setCircuitWindowSize(2)
+                .setCircuitOpenMillis(10_000)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testRetryHonorsOpenCircuit");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error opening the circuit");
+            Thread.sleep(300);
+
+            // the retries found the circuit open and did not call SendGrid again
+            assertEquals(1, bodies.size());
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSpool(@TempDir final Path spoolDirectory) throws IOException, InterruptedException {
+        var statusCodes = new ConcurrentLinkedQueue<>(List.of(503, 202, 202));
+        List<byte[]> bodies = new CopyOnWriteArrayList<>();
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                bodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(statusCodes.poll(), -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-spool")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(1)
+                .setSpoolDirectory(spoolDirectory.toString())
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testSpool");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error during an outage");
+            logger.error("Error once SendGrid recovered");
+            for (int i = 0; i < 500 && bodies.size() < 3; i++) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(3, bodies.size());
+            assertTrue(statusCodes.isEmpty());
+            // the success replays the spooled body
+            assertArrayEquals(bodies.get(0), bodies.get(2));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailoverHost() throws IOException, InterruptedException {
+        List<byte[]> primaryBodies = new CopyOnWriteArrayList<>();
+        List<byte[]> failoverBodies = new CopyOnWriteArrayList<>();
+        var primary = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        primary.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                primaryBodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        primary.start();
+        var failover = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        failover.createContext("/v3/mail/send", exchange -> {
+            try (var in = exchange.getRequestBody()) {
+                failoverBodies.add(in.readAllBytes());
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        failover.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + primary.getAddress().getPort())
+                .setApiKey("apiKey-failover-host")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(1)
+                .setCircuitWindowSize(2)
+                .setFailoverHost("http://localhost:" + failover.getAddress().getPort())
+                .setFailoverApiKey("apiKey-failover-host-2")
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testFailoverHost");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error while the primary host is down");
+            logger.error("Error while the primary circuit is open");
+
+            // the open circuit of the primary host skips it
+            assertEquals(1, primaryBodies.size());
+            assertEquals(2, failoverBodies.size());
+            assertArrayEquals(primaryBodies.get(0), failoverBodies.get(0));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            primary.stop(0);
+            failover.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailoverAppender() throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        var events = new ListAppender("Fallback");
+        events.start();
+        var configuration = new DefaultConfiguration();
+        configuration.addAppender(events);
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-failover-appender")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setMaxAttempts(1)
+                .setFailoverAppender("Fallback")
+                .setConfiguration(configuration)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testFailoverAppender");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.debug("Debug message");
+            logger.error("Error while SendGrid is down");
+
+            // the buffered context is forwarded along with the triggering event
+            assertEquals(2, events.events.size());
+            assertEquals("Debug message", events.events.get(0).getMessage().getFormattedMessage());
+            assertEquals("Error while SendGrid is down", events.events.get(1).getMessage().getFormattedMessage());
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailoverAppenderAfterReconfiguration() throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v3/mail/send", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var builder = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setApiKey("apiKey-failover-reconfigure")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setTransport(TransportType.JDK)
+                .setFailoverAppender("Fallback");
+        var oldEvents = new ListAppender("Fallback");
+        oldEvents.start();
+        var oldConfiguration = new DefaultConfiguration();
+        oldConfiguration.addAppender(oldEvents);
+        var oldAppender = builder.setConfiguration(oldConfiguration).build();
+        assertNotNull(oldAppender);
+        oldAppender.start();
+        // a reconfiguration creates new appenders sharing the manager, then stops the old ones
+        var newEvents = new ListAppender("Fallback");
+        newEvents.start();
+        var newConfiguration = new DefaultConfiguration();
+        newConfiguration.addAppender(newEvents);
+        var newAppender = builder.setConfiguration(newConfiguration).build();
+        assertNotNull(newAppender);
+        newAppender.start();
+        assertSame(oldAppender.getManager(), newAppender.getManager());
+        oldAppender.stop(10, TimeUnit.SECONDS);
+        oldEvents.stop();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testFailoverAppenderAfterReconfiguration");
+            logger.addAppender(newAppender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Error while SendGrid is down");
+
+            // the failover appender of the new configuration takes the events
+            assertEquals(0, oldEvents.events.size());
+            assertEquals(1, newEvents.events.size());
+            assertEquals("Error while SendGrid is down", newEvents.events.get(0).getMessage().getFormattedMessage());
+        } finally {
+            newAppender.stop(10, TimeUnit.SECONDS);
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testManagerPerSettings() {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var builder = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-manager-settings")
+                .setLayout(PatternLayout.createDefaultLayout());
+        var plain = builder.build();
+        var same = builder.build();
+        var async = builder.setAsync(true).build();
+        var gzip = builder.setAsync(false).setGzip(true).build();
+        assertNotNull(plain);
+        assertNotNull(same);
+        assertNotNull(async);
+        assertNotNull(gzip);
+        try {
+            // appenders sharing the recipients only share a manager built with the same settings
+            assertSame(plain.getManager(), same.getManager());
+            assertNotSame(plain.getManager(), async.getManager());
+            assertNotSame(plain.getManager(), gzip.getManager());
+            assertNotSame(async.getManager(), gzip.getManager());
+        } finally {
+            for (var appender : List.of(plain, same, async, gzip)) {
+                appender.stop(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void testRouting() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("platform@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-routing")
+                .setRouteBy(RouteSource.CONTEXT)
+                .setRouteKey("tenant")
+                .setRoutes(
+                        MailRoute.createRoute("a", "oncall@a.example.com", null, null),
+                        MailRoute.createRoute("b", "oncall@b.example.com", null, null),
+                        MailRoute.createRoute("b", "team@b.example.com", null, null))
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testRouting");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            ThreadContext.put("tenant", "a");
+            logger.error("Error of tenant a");
+            ThreadContext.put("tenant", "b");
+            logger.error("Error of tenant b");
+            ThreadContext.put("tenant", "c");
+            logger.error("Error of tenant c");
+            ThreadContext.remove("tenant");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(3, sendGrid.getRequests().size());
+            var mapper = new ObjectMapper();
+            var tenantA = mapper.readValue(sendGrid.getRequests().get(0).getBody(), Mail.class);
+            assertEquals(1, tenantA.getPersonalization().size());
+            assertEquals("oncall@a.example.com", tenantA.getPersonalization().get(0).getTos().get(0).getEmail());
+            // one request fans out to every recipient group of the tenant
+            var tenantB = mapper.readValue(sendGrid.getRequests().get(1).getBody(), Mail.class);
+            assertEquals(2, tenantB.getPersonalization().size());
+            assertEquals("oncall@b.example.com", tenantB.getPersonalization().get(0).getTos().get(0).getEmail());
+            assertEquals("team@b.example.com", tenantB.getPersonalization().get(1).getTos().get(0).getEmail());
+            var unrouted = mapper.readValue(sendGrid.getRequests().get(2).getBody(), Mail.class);
+            assertEquals("platform@example.com", unrouted.getPersonalization().get(0).getTos().get(0).getEmail());
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFailedGroupDoesNotDropTheNextOnes() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(apiKey -> new MockSendGrid(apiKey) {
+            @Override
+            public Response api(final Request request) throws IOException {
+                if (request.getBody().contains("oncall@a.example.com")) {
+                    throw new IOException("Request returned status Code 400Body:{\"errors\":[]}");
+                }
+                return super.api(request);
+            }
+        });
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("platform@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-failed-group")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setCoalesceMillis(60_000)
+                .setRouteBy(RouteSource.CONTEXT)
+                .setRouteKey("tenant")
+                .setRoutes(
+                        MailRoute.createRoute("a", "oncall@a.example.com", null, null),
+                        MailRoute.createRoute("b", "oncall@b.example.com", null, null))
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testFailedGroupDoesNotDropTheNextOnes");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            ThreadContext.put("tenant", "a");
+            logger.error("Error of tenant a");
+            ThreadContext.put("tenant", "b");
+            logger.error("Error of tenant b");
+            ThreadContext.remove("tenant");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            // both alerts are coalesced into one delivery, flushed on stop
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+            assertEquals(1, sendGrid.getRequests().size());
+            var tenantB = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class);
+            assertEquals("oncall@b.example.com", tenantB.getPersonalization().get(0).getTos().get(0).getEmail());
+            assertTrue(tenantB.getContent().get(0).getValue().contains("Error of tenant b"));
+            assertEquals(1, appender.getMetrics().getMailsDropped());
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBatching() throws IOException, InterruptedException {
+        var sending = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        SendGridManager.FACTORY.setSendGridFactory(apiKey -> new MockSendGrid(apiKey) {
+            @Override
+            public Response makeCall(final Request request) {
+                sending.countDown();
+                try {
+                    // hold the first request, so the next alerts queue up behind it
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.makeCall(request);
+            }
+        });
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setSubject("Error: %m")
+                .setApiKey("apiKey-batching")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setAsync(true)
+                .setMaxBatchSize(10)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testBatching");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.error("Batch error #1");
+            assertTrue(sending.await(10, TimeUnit.SECONDS));
+            logger.error("Batch error #2");
+            logger.error("Batch error #3");
+            logger.error("Batch error #4");
+            release.countDown();
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+            assertEquals(2, sendGrid.getRequests().size());
+            var batch = new ObjectMapper().readValue(sendGrid.getRequests().get(1).getBody(), Mail.class);
+            // each alert is its own message of the same request
+            assertEquals(3, batch.getPersonalization().size());
+            var content = batch.getContent().get(0).getValue();
+            for (int i = 0; i < 3; i++) {
+                var personalization = batch.getPersonalization().get(i);
+                assertEquals("to@example.com", personalization.getTos().get(0).getEmail());
+                assertEquals("Error: Batch error #" + (i + 2), personalization.getSubject());
+                var alert = personalization.getSubstitutions().get(content);
+                assertTrue(alert.contains("Batch error #" + (i + 2)));
+                assertFalse(alert.contains("Batch error #" + (i + 3)));
+            }
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-metrics")
+                .setLayout(PatternLayout.createDefaultLayout())
+                .setBufferSize(10)
+                .setJmx(true)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var pattern = new ObjectName("com.github.akunzai.log4j:type=SendGridManager,*");
+        List<ObjectName> names;
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testMetrics");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.debug("Debug message #1");
+            logger.debug("Debug message #2");
+            assertEquals(2, appender.getMetrics().getBufferOccupancy());
+            logger.error("Error message");
+
+            var metrics = appender.getMetrics();
+            assertEquals(2, metrics.getEventsBuffered());
+            assertEquals(0, metrics.getBufferOccupancy());
+            assertEquals(1, metrics.getAlerts());
+            assertEquals(1, metrics.getRequestsSent());
+            assertEquals(0, metrics.getRequestsFailed());
+            assertTrue(metrics.getSendLatencyMaxMillis() >= metrics.getSendLatencyP50Millis());
+
+            names = server.queryNames(pattern, null).stream()
+                    .filter(name -> name.getKeyProperty("name").contains("to@example.com:::from@example.com:"))
+                    .toList();
+            assertEquals(1, names.size());
+            // the API key is masked in the name of the MBean
+            assertFalse(names.get(0).getKeyProperty("name").contains("apiKey-metrics"));
+            assertTrue(names.get(0).getKeyProperty("name").contains("***"));
+            assertEquals(1L, server.getAttribute(names.get(0), "RequestsSent"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+        assertFalse(server.isRegistered(names.get(0)));
+    }
+
+    @Test
+    public void testTextPattern() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-textPattern")
+                .setBufferSize(8)
+                .setTextPattern("[%p] %m%n")
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testTextPattern");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.info("Info message");
+            logger.error("Error message");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            var mail = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class);
+            assertEquals(2, mail.getContent().size());
+            assertEquals("text/plain", mail.getContent().get(0).getType());
+            assertEquals("[INFO] Info message\n[ERROR] Error message\n",
+                    mail.getContent().get(0).getValue().replace("\r\n", "\n"));
+            assertEquals("text/html", mail.getContent().get(1).getType());
+            assertTrue(mail.getContent().get(1).getValue().contains("Info message"));
+            assertTrue(mail.getContent().get(1).getValue().contains("Error message"));
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testAttachContext() throws IOException {
+        SendGridManager.FACTORY.setSendGridFactory(MockSendGrid::new);
+        var appender = SendGridAppender.newBuilder()
+                .setName("SendGrid")
+                .setTo("to@example.com")
+                .setFrom("from@example.com")
+                .setApiKey("apiKey-attachContext")
+                .setBufferSize(8)
+                .setLayout(PatternLayout.newBuilder().withPattern("%m%n").build())
+                .setAttachContext(true)
+                .build();
+        assertNotNull(appender);
+        appender.start();
+
+        try (var context = Configurator.initialize(
+                ConfigurationBuilderFactory.newConfigurationBuilder()
+                        .setStatusLevel(Level.OFF)
+                        .build())) {
+            var logger = context.getLogger("testAttachContext");
+            logger.addAppender(appender);
+            logger.setAdditive(false);
+            logger.setLevel(Level.DEBUG);
+
+            logger.info("Info message");
+            logger.error("Error message");
+
+            var sendGrid = (MockSendGrid) appender.getManager().sendGrid;
+            assertEquals(1, sendGrid.getRequests().size());
+            var mail = new ObjectMapper().readValue(sendGrid.getRequests().get(0).getBody(), Mail.class);
+            assertEquals("Error message" + System.lineSeparator(), mail.getContent().get(0).getValue());
+            var attachment = mail.getAttachments().get(0);
+            assertEquals("log4j-context.log.gz", attachment.getFilename());
+            var events = new String(GzipEncoder.decode(Base64.getDecoder().decode(attachment.getContent())),
+                    StandardCharsets.UTF_8);
+            assertEquals("Info message" + System.lineSeparator() + "Error message" + System.lineSeparator(), events);
+        } finally {
+            appender.stop(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class ListAppender extends AbstractAppender {
+        final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+        ListAppender(final String name) {
+            super(name, null, null, true, Property.EMPTY_ARRAY);
+        }
+
+        @Override
+        public void append(final LogEvent event) {
+            events.add(event.toImmutable());
+        }
+    }
 }
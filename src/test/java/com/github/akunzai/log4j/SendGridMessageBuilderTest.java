@@ -41,6 +41,16 @@ public class SendGridMessageBuilderTest {
         assertEquals(address.getAddress(), from.getEmail());
     }
 
+    @Test
+    public void testMessageBuilderSetFromWithFallback() throws AddressException {
+        var builder = new SendGridMessageBuilder();
+        var fallback = "fallback@example.com";
+
+        assertEquals(fallback, builder.setFrom(null, fallback).build().getFrom().getEmail());
+        assertEquals(fallback, builder.setFrom("${env:LOG_MAIL_FROM}", fallback).build().getFrom().getEmail());
+        assertEquals("from@example.com", builder.setFrom("from@example.com", fallback).build().getFrom().getEmail());
+    }
+
     @Test
     public void testMessageBuilderSetReplyTo() throws AddressException {
         var builder = new SendGridMessageBuilder();
@@ -89,4 +99,33 @@ public class SendGridMessageBuilderTest {
         builder.setSubject(subject);
         assertEquals(subject, builder.build().getSubject());
     }
+
+    @Test
+    public void testMessageBuilderAddPersonalization() throws AddressException {
+        var builder = new SendGridMessageBuilder()
+                .setRecipients(Message.RecipientType.TO, "first@example.com");
+        var routed = new SendGridMessageBuilder()
+                .setRecipients(Message.RecipientType.TO, "routed@example.com")
+                .setRecipients(Message.RecipientType.BCC, "audit@example.com")
+                .build().getPersonalization().get(0);
+
+        builder.setPersonalizationSubject("First subject").addSubstitution("-key-", "first");
+        builder.addPersonalization()
+                .setRecipients(Message.RecipientType.TO, "second@example.com")
+                .setPersonalizationSubject("Second subject")
+                .addSubstitution("-key-", "second");
+        builder.addPersonalization().addRecipients(routed);
+
+        var personalizations = builder.build().getPersonalization();
+        assertEquals(3, personalizations.size());
+        assertEquals("first@example.com", personalizations.get(0).getTos().get(0).getEmail());
+        assertEquals("First subject", personalizations.get(0).getSubject());
+        assertEquals("first", personalizations.get(0).getSubstitutions().get("-key-"));
+        assertEquals("second@example.com", personalizations.get(1).getTos().get(0).getEmail());
+        assertEquals("Second subject", personalizations.get(1).getSubject());
+        assertEquals("second", personalizations.get(1).getSubstitutions().get("-key-"));
+        assertEquals("routed@example.com", personalizations.get(2).getTos().get(0).getEmail());
+        assertEquals("audit@example.com", personalizations.get(2).getBccs().get(0).getEmail());
+        assertNull(personalizations.get(2).getSubject());
+    }
 }
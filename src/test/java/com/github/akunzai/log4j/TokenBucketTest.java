@@ -0,0 +1,34 @@
+package com.github.akunzai.log4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstAndRefill() {
+        var start = System.nanoTime();
+        var bucket = new TokenBucket(3, 60, start);
+
+        assertTrue(bucket.tryAcquire(start));
+        assertTrue(bucket.tryAcquire(start));
+        assertTrue(bucket.tryAcquire(start));
+        assertFalse(bucket.tryAcquire(start));
+
+        // one token per second
+        assertFalse(bucket.tryAcquire(start + TimeUnit.MILLISECONDS.toNanos(999)));
+        assertTrue(bucket.tryAcquire(start + TimeUnit.SECONDS.toNanos(1)));
+        assertFalse(bucket.tryAcquire(start + TimeUnit.SECONDS.toNanos(1)));
+
+        // an idle bucket refills up to the burst only
+        var later = start + TimeUnit.MINUTES.toNanos(10);
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+}